@@ -1,35 +1,47 @@
 package com.rafaelhosaka.shareme.chat;
 
-import com.rafaelhosaka.shareme.message.Message;
-import com.rafaelhosaka.shareme.user.UserProfile;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.rafaelhosaka.shareme.user.UserSummary;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.LocalDateTime;
+
+/**
+ * Inbox entry of a user for one conversation, holding what the chat list displays so it renders with one query.
+ */
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 @Document
-public class Chat implements Comparable<Chat>{
+@CompoundIndexes({
+        @CompoundIndex(name = "chat_owner_friend_idx", def = "{'ownerId': 1, 'friend._id': 1}", unique = true,
+                partialFilter = "{'ownerId': {'$exists': true}}"),
+        @CompoundIndex(name = "chat_owner_last_message_idx", def = "{'ownerId': 1, 'lastMessageAt': -1, '_id': -1}"),
+        //refreshes the friend summaries when a user changes their name or picture
+        @CompoundIndex(name = "chat_friend_idx", def = "{'friend._id': 1}")
+})
+public class Chat {
     @Id
     private String id;
 
-    @DBRef
-    private UserProfile owner;
+    private String ownerId;
+
+    private UserSummary friend;
 
-    @DBRef
-    private UserProfile friend;
+    private ChatMessage lastMessage;
 
-    @DBRef
-    private Message lastMessage;
+    private LocalDateTime lastMessageAt;
 
-    private boolean read;
+    private long unreadCount;
 
-    @Override
-    public int compareTo(Chat o) {
-        return getLastMessage().getDateSent().compareTo(o.getLastMessage().getDateSent());
+    @JsonProperty("read")
+    public boolean isRead() {
+        return unreadCount == 0;
     }
 }
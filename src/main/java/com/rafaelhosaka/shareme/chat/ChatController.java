@@ -1,6 +1,8 @@
 package com.rafaelhosaka.shareme.chat;
 
+import com.rafaelhosaka.shareme.pagination.CursorPage;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -17,13 +19,28 @@ public class ChatController {
     }
 
     @GetMapping("/{id}")
-    public ResponseEntity<List<Chat>> getChatByUserId(@PathVariable("id")String id){
+    public ResponseEntity<List<LegacyChat>> getChatByUserId(@PathVariable("id")String id){
         return ResponseEntity.ok().body(chatService.getChatByUserId(id));
     }
 
+    @GetMapping("/inbox/{id}")
+    public ResponseEntity<CursorPage<Chat>> getInbox(@PathVariable("id") String id,
+                                                     @RequestParam(value = "cursor", required = false) String cursor,
+                                                     @RequestParam(value = "size", defaultValue = "20") int size){
+        try {
+            return ResponseEntity.ok().body(chatService.getInbox(id, cursor, size));
+        }catch (IllegalArgumentException e){
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @PutMapping("/markAsRead")
     public ResponseEntity<Integer> markAsRead(@RequestPart("ownerId") String ownerId, @RequestPart("friendId")String friendId ){
-        return ResponseEntity.ok().body(chatService.markAsRead(ownerId, friendId));
+        try {
+            return ResponseEntity.ok().body(chatService.markAsRead(ownerId, friendId));
+        }catch (IllegalArgumentException e){
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
     }
 
     @GetMapping("/{userId}/unreadCount")
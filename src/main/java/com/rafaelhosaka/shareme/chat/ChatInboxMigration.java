@@ -0,0 +1,165 @@
+package com.rafaelhosaka.shareme.chat;
+
+import com.mongodb.DBRef;
+import com.rafaelhosaka.shareme.message.Message;
+import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserSummary;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
+import lombok.extern.slf4j.Slf4j;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Rewrites the chats holding DBRefs to their owner, friend and last message as inbox entries, in batches.
+ * Each chat is rewritten with a single update, so an interrupted migration resumes on the next startup.
+ * A chat whose inbox entry already exists, upserted by a message sent meanwhile, is merged into it.
+ */
+@Component
+@Slf4j
+@PropertySource("classpath:application.properties")
+public class ChatInboxMigration {
+    private static final int BATCH_SIZE = 500;
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MongoTemplate mongoTemplate;
+    private final int snippetLength;
+
+    @Autowired
+    public ChatInboxMigration(MongoTemplate mongoTemplate, Environment environment) {
+        this.mongoTemplate = mongoTemplate;
+        this.snippetLength = environment.getProperty("chat.snippet-length", Integer.class, 100);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        CompletableFuture.runAsync(this::migrate);
+    }
+
+    public void migrate() {
+        try {
+            int migrated = 0;
+            BasicQuery query = new BasicQuery("{ 'owner' : { '$exists' : true } }");
+            try (CloseableIterator<Document> chats = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(Chat.class))) {
+                List<Document> batch = new ArrayList<>();
+                while (chats.hasNext()) {
+                    batch.add(chats.next());
+                    if(batch.size() == BATCH_SIZE){
+                        migrated += migrate(batch);
+                        batch.clear();
+                    }
+                }
+                if(!batch.isEmpty()){
+                    migrated += migrate(batch);
+                }
+            }
+            if(migrated > 0){
+                log.info("Rewrote {} chats as inbox entries", migrated);
+            }
+        }catch (Exception e){
+            log.error("Exception : could not migrate chats : {}", e.getMessage());
+        }
+    }
+
+    private int migrate(List<Document> chats) {
+        Map<Object, UserProfile> friends = findByIds(chats, "friend", UserProfile.class, UserProfile::getId);
+        Map<Object, Message> messages = findByIds(chats, "lastMessage", Message.class, Message::getId);
+
+        //one operation per chat, in order
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Chat.class);
+        List<Update> updates = new ArrayList<>();
+        for (Document chat : chats) {
+            Query byId = Query.query(Criteria.where("_id").is(chat.get("_id")));
+            UserProfile friend = friends.get(idOf(chat, "friend"));
+            DBRef owner = chat.get("owner", DBRef.class);
+            if(friend == null || owner == null){
+                //the friend or the owner was deleted
+                bulk.remove(byId);
+                updates.add(null);
+                continue;
+            }
+            Message message = messages.get(idOf(chat, "lastMessage"));
+            ChatMessage lastMessage = message == null ? null : ChatMessage.of(message, snippetLength);
+            Update update = new Update()
+                    .set("ownerId", owner.getId().toString())
+                    .set("friend", UserSummary.of(friend))
+                    .set("lastMessage", lastMessage)
+                    .set("lastMessageAt", lastMessage == null ? null : lastMessage.getDateSent())
+                    .set("unreadCount", Boolean.FALSE.equals(chat.getBoolean("read")) ? 1 : 0)
+                    .unset("owner")
+                    .unset("read");
+            bulk.updateOne(byId, update);
+            updates.add(update);
+        }
+        try {
+            bulk.execute();
+        }catch (BulkOperationException e){
+            BulkOperations merges = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Chat.class);
+            int merged = 0;
+            for (BulkWriteError error : e.getErrors()) {
+                Update update = updates.get(error.getIndex());
+                if(error.getCode() != DUPLICATE_KEY || update == null){
+                    log.error("Exception : could not migrate chat {} : {}", chats.get(error.getIndex()).get("_id"), error.getMessage());
+                    continue;
+                }
+                merge(merges, chats.get(error.getIndex()), update);
+                merged++;
+            }
+            if(merged > 0){
+                merges.execute();
+            }
+        }
+        return chats.size();
+    }
+
+    /**
+     * The existing entry holds the newer messages, it only gains the unread message of the legacy chat.
+     */
+    private void merge(BulkOperations merges, Document chat, Update update) {
+        Document set = update.getUpdateObject().get("$set", Document.class);
+        merges.updateOne(Query.query(Criteria
+                        .where("ownerId").is(set.get("ownerId"))
+                        .and("friend._id").is(ObjectIds.from(((UserSummary) set.get("friend")).getId()))),
+                new Update().inc("unreadCount", (Integer) set.get("unreadCount")));
+        merges.remove(Query.query(Criteria.where("_id").is(chat.get("_id"))));
+    }
+
+    private <T> Map<Object, T> findByIds(List<Document> chats, String field, Class<T> type, Function<T, String> idOf) {
+        Set<Object> ids = chats.stream()
+                .map(chat -> idOf(chat, field))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if(ids.isEmpty()){
+            return new HashMap<>();
+        }
+        return mongoTemplate.find(Query.query(Criteria.where("_id").in(ids)), type).stream()
+                .collect(Collectors.toMap(idOf, document -> document, (a, b) -> a));
+    }
+
+    private Object idOf(Document chat, String field) {
+        Object reference = chat.get(field);
+        if(!(reference instanceof DBRef)){
+            return null;
+        }
+        Object id = ((DBRef) reference).getId();
+        return id == null ? null : id.toString();
+    }
+}
@@ -0,0 +1,32 @@
+package com.rafaelhosaka.shareme.chat;
+
+import com.rafaelhosaka.shareme.message.Message;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * The last message of a chat as shown in the inbox, its content cut to a snippet.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ChatMessage {
+    private String id;
+
+    private String senderId;
+
+    private String content;
+
+    private LocalDateTime dateSent;
+
+    public static ChatMessage of(Message message, int snippetLength) {
+        String content = message.getContent();
+        if(content != null && content.length() > snippetLength){
+            content = content.substring(0, snippetLength);
+        }
+        return new ChatMessage(message.getId(), message.getSender() == null ? null : message.getSender().getId(), content, message.getDateSent());
+    }
+}
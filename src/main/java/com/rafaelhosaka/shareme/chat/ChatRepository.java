@@ -1,15 +1,17 @@
 package com.rafaelhosaka.shareme.chat;
 
-import com.rafaelhosaka.shareme.message.Message;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface ChatRepository extends MongoRepository<Chat, String> {
-    @Query("{'owner.id': ?0}")
-    List<Chat> getChatByUserId(String userId);
+    @Query("{ 'ownerId' : ?0 }")
+    List<Chat> getChats(String ownerId, Pageable pageable);
 
-    @Query("{'$and':[ {'owner.id': ?0}, {'friend.id': ?1} ] }")
-    Chat getChatByIds(String ownerId, String friendId);
+    @Query("{ 'ownerId' : ?0, '$or' : [ { 'lastMessageAt' : { '$lt' : ?1 } }, { 'lastMessageAt' : ?1, '_id' : { '$lt' : ?2 } } ] }")
+    List<Chat> getChatsBefore(String ownerId, LocalDateTime date, ObjectId id, Pageable pageable);
 }
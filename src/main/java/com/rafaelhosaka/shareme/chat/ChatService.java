@@ -1,46 +1,99 @@
 package com.rafaelhosaka.shareme.chat;
 
+import com.rafaelhosaka.shareme.message.Message;
+import com.rafaelhosaka.shareme.message.MessageRepository;
+import com.rafaelhosaka.shareme.pagination.Cursor;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
+import com.rafaelhosaka.shareme.unread.UnreadCounterService;
+import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserProfileRepository;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
+import java.util.stream.Collectors;
 
 @Service
 public class ChatService {
-    private ChatRepository chatRepository;
+    public static final Sort LATEST_FIRST = Sort.by(Sort.Direction.DESC, "lastMessageAt", "id");
+
+    private final ChatRepository chatRepository;
+    private final MongoTemplate mongoTemplate;
+    private final UnreadCounterService unreadCounterService;
+    private final UserProfileRepository userRepository;
+    private final MessageRepository messageRepository;
 
     @Autowired
-    public ChatService(ChatRepository chatRepository) {
+    public ChatService(ChatRepository chatRepository, MongoTemplate mongoTemplate, UnreadCounterService unreadCounterService,
+                       UserProfileRepository userRepository, MessageRepository messageRepository) {
         this.chatRepository = chatRepository;
+        this.userRepository = userRepository;
+        this.messageRepository = messageRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.unreadCounterService = unreadCounterService;
     }
 
-    public List<Chat> getChatByUserId(String id) {
-        List<Chat> chats =  chatRepository.getChatByUserId(id);
-        if(chats != null) {
-            Collections.sort(chats, Collections.reverseOrder());
+    /**
+     * Every chat of the user in the legacy shape, the users and last messages loaded with one query each.
+     */
+    public List<LegacyChat> getChatByUserId(String id) {
+        List<Chat> chats = chatRepository.getChats(id, PageRequest.of(0, Integer.MAX_VALUE, LATEST_FIRST));
+        Set<String> usersIds = new HashSet<>();
+        usersIds.add(id);
+        List<String> messagesIds = new ArrayList<>();
+        for (Chat chat : chats) {
+            usersIds.add(chat.getFriend().getId());
+            if(chat.getLastMessage() != null){
+                messagesIds.add(chat.getLastMessage().getId());
+            }
         }
-        return chats;
+        Map<String, UserProfile> users = new HashMap<>();
+        userRepository.findAllById(usersIds).forEach(user -> users.put(user.getId(), user));
+        Map<String, Message> messages = new HashMap<>();
+        messageRepository.findAllById(messagesIds).forEach(message -> messages.put(message.getId(), message));
+        return chats.stream()
+                .map(chat -> new LegacyChat(chat.getId(),
+                        users.get(id),
+                        users.get(chat.getFriend().getId()),
+                        chat.getLastMessage() == null ? null : messages.get(chat.getLastMessage().getId()),
+                        chat.isRead()))
+                .collect(Collectors.toList());
     }
 
-    public int markAsRead(String ownerId, String friendId) {
-        Chat chat = chatRepository.getChatByIds(ownerId, friendId);
-        if(chat != null) {
-            chat.setRead(true);
-            chatRepository.save(chat);
+    public CursorPage<Chat> getInbox(String userId, String cursor, int size) throws IllegalArgumentException {
+        int pageSize = CursorPage.clampSize(size);
+        Pageable pageable = PageRequest.of(0, pageSize + 1, LATEST_FIRST);
+
+        List<Chat> chats;
+        if(cursor == null || cursor.isEmpty()){
+            chats = chatRepository.getChats(userId, pageable);
+        }else{
+            Cursor after = Cursor.decode(cursor);
+            chats = chatRepository.getChatsBefore(userId, after.getDate(), ObjectIds.from(after.getId()), pageable);
         }
-        return unreadCount(ownerId);
+        return CursorPage.of(chats, pageSize, chat -> new Cursor(chat.getLastMessageAt(), chat.getId()));
+    }
 
+    public int markAsRead(String ownerId, String friendId) throws IllegalArgumentException {
+        long read = mongoTemplate.updateFirst(Query.query(Criteria
+                        .where("ownerId").is(ownerId)
+                        .and("friend._id").is(ObjectIds.from(friendId))
+                        .and("unreadCount").gt(0)),
+                Update.update("unreadCount", 0),
+                Chat.class).getModifiedCount();
+        unreadCounterService.chatsChanged(ownerId, (int) -read);
+        return unreadCount(ownerId);
     }
 
     public int unreadCount(String userId) {
-        List<Chat> chats = chatRepository.getChatByUserId(userId);
-        int unreadCount = 0;
-        for (Chat chat : chats) {
-            if(!chat.isRead()){
-                unreadCount++;
-            }
-        }
-        return unreadCount;
+        return unreadCounterService.getUnreadChats(userId);
     }
 }
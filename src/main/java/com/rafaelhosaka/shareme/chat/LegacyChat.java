@@ -0,0 +1,26 @@
+package com.rafaelhosaka.shareme.chat;
+
+import com.rafaelhosaka.shareme.message.Message;
+import com.rafaelhosaka.shareme.user.UserProfile;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A chat in the shape GET /api/chat/{id} returned before the inbox read model, with the full owner, friend
+ * and last message.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LegacyChat {
+    private String id;
+
+    private UserProfile owner;
+
+    private UserProfile friend;
+
+    private Message lastMessage;
+
+    private boolean read;
+}
@@ -1,24 +1,23 @@
 package com.rafaelhosaka.shareme.comment;
 
 
-import com.rafaelhosaka.shareme.like.Like;
+import com.rafaelhosaka.shareme.like.Likeable;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 @Document(collation = "comment")
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
-public class BaseComment {
+public class BaseComment implements Likeable {
     @Id
     private String id;
 
@@ -28,5 +27,8 @@ public class BaseComment {
 
     private LocalDateTime dateCreated;
 
-    private Set<Like> likes = new HashSet<>();
+    private long likeCount;
+
+    @Transient
+    private boolean likedByMe;
 }
@@ -1,27 +1,26 @@
 package com.rafaelhosaka.shareme.comment;
 
-import com.rafaelhosaka.shareme.like.Like;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-
 @Document(collection = "comment")
+@CompoundIndexes({
+        @CompoundIndex(name = "comment_post_parent_date_idx", def = "{'postId': 1, 'parentId': 1, 'dateCreated': -1, '_id': -1}"),
+        @CompoundIndex(name = "comment_parent_date_idx", def = "{'parentId': 1, 'dateCreated': -1, '_id': -1}")
+})
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 public class Comment extends BaseComment{
 
+    private String postId;
+
     private String parentId;
 
-    @DBRef
-    private List<BaseComment> subComments;
+    private long replyCount;
 
 }
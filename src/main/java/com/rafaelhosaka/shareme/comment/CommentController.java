@@ -3,13 +3,17 @@ package com.rafaelhosaka.shareme.comment;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.rafaelhosaka.shareme.exception.CommentNotFoundException;
 import com.rafaelhosaka.shareme.exception.PostNotFoundException;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
 import com.rafaelhosaka.shareme.post.Post;
 import com.rafaelhosaka.shareme.utils.JsonConverter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("api/comment")
 @Slf4j
@@ -43,6 +47,45 @@ public class CommentController {
         }
     }
 
+    @GetMapping("/post/{postId}")
+    public ResponseEntity<CursorPage<Comment>> getPostComments(@PathVariable("postId") String postId,
+                                                               @RequestParam(value = "userId", required = false) String userId,
+                                                               @RequestParam(value = "cursor", required = false) String cursor,
+                                                               @RequestParam(value = "size", defaultValue = "20") int size,
+                                                               @RequestParam(value = "order", defaultValue = "newest") String order){
+        try {
+            return ResponseEntity.ok(commentService.getPostComments(postId, userId, cursor, size, !"oldest".equals(order)));
+        }catch(IllegalArgumentException e){
+            log.error("Exception : {}",e.getMessage());
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping("/{id}/replies")
+    public ResponseEntity<CursorPage<Comment>> getReplies(@PathVariable("id") String commentId,
+                                                          @RequestParam(value = "userId", required = false) String userId,
+                                                          @RequestParam(value = "cursor", required = false) String cursor,
+                                                          @RequestParam(value = "size", defaultValue = "20") int size,
+                                                          @RequestParam(value = "order", defaultValue = "oldest") String order){
+        try {
+            return ResponseEntity.ok(commentService.getReplies(commentId, userId, cursor, size, "newest".equals(order)));
+        }catch(IllegalArgumentException e){
+            log.error("Exception : {}",e.getMessage());
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @PostMapping("/bulk")
+    public ResponseEntity<List<CommentImportResult>> importComments(@RequestBody List<CommentImport> comments,
+                                                                    @RequestParam(value = "ordered", defaultValue = "false") boolean ordered){
+        try {
+            return ResponseEntity.ok(commentService.importComments(comments, ordered));
+        }catch(IllegalArgumentException e){
+            log.error("Exception : {}",e.getMessage());
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @PutMapping("/update")
     private ResponseEntity<Comment> updateComment(@RequestBody Comment comment){
         return ResponseEntity.ok().body(commentService.updateComment(comment ));
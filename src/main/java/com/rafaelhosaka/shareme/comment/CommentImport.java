@@ -0,0 +1,26 @@
+package com.rafaelhosaka.shareme.comment;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * A comment of a bulk import. Without a parentId it is a top level comment of the post,
+ * and without a dateCreated it is dated at the time of the import.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CommentImport {
+    private String postId;
+
+    private String parentId;
+
+    private String userId;
+
+    private String description;
+
+    private LocalDateTime dateCreated;
+}
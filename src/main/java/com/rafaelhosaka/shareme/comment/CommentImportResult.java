@@ -0,0 +1,21 @@
+package com.rafaelhosaka.shareme.comment;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of the comment at the given index of a bulk import.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CommentImportResult {
+    private int index;
+
+    private String id;
+
+    private CommentImportStatus status;
+
+    private String error;
+}
@@ -0,0 +1,7 @@
+package com.rafaelhosaka.shareme.comment;
+
+public enum CommentImportStatus {
+    CREATED,
+    FAILED,
+    SKIPPED
+}
@@ -0,0 +1,101 @@
+package com.rafaelhosaka.shareme.comment;
+
+import com.mongodb.DBRef;
+import com.rafaelhosaka.shareme.post.BasePost;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Replaces the comments and subComments references of posts written before comments were paginated by
+ * postId and parentId on the comments, and sets the counters and previews. The references are unset only
+ * once a post is converted, so an interrupted migration resumes on the next startup.
+ */
+@Component
+@Slf4j
+public class CommentMigration {
+    private final MongoTemplate mongoTemplate;
+    private final CommentService commentService;
+
+    @Autowired
+    public CommentMigration(MongoTemplate mongoTemplate, CommentService commentService) {
+        this.mongoTemplate = mongoTemplate;
+        this.commentService = commentService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        CompletableFuture.runAsync(this::migrate);
+    }
+
+    public void migrate() {
+        String posts = mongoTemplate.getCollectionName(BasePost.class);
+        try {
+            int migrated = 0;
+            BasicQuery query = new BasicQuery("{ 'comments' : { '$exists' : true } }", "{ 'comments' : 1 }");
+            try (CloseableIterator<Document> documents = mongoTemplate.stream(query, Document.class, posts)) {
+                while (documents.hasNext()) {
+                    migrate(documents.next());
+                    migrated++;
+                }
+            }
+            if(migrated > 0){
+                log.info("Migrated the comments of {} posts", migrated);
+            }
+        }catch (Exception e){
+            log.error("Exception : could not migrate the comments of posts : {}", e.getMessage());
+        }
+    }
+
+    private void migrate(Document post) {
+        String postId = post.getObjectId("_id").toHexString();
+        List<ObjectId> commentsIds = idsOf(post.get("comments", List.class));
+        if(!commentsIds.isEmpty()){
+            mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(commentsIds)),
+                    Update.update("postId", postId), Comment.class);
+
+            BasicQuery withReplies = new BasicQuery(
+                    new Document("_id", new Document("$in", commentsIds)).append("subComments", new Document("$exists", true)),
+                    new Document("subComments", 1));
+            for (Document comment : mongoTemplate.find(withReplies, Document.class, mongoTemplate.getCollectionName(Comment.class))) {
+                List<ObjectId> repliesIds = idsOf(comment.get("subComments", List.class));
+                if(!repliesIds.isEmpty()){
+                    mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(repliesIds)),
+                            new Update().set("postId", postId).set("parentId", comment.getObjectId("_id").toHexString()),
+                            Comment.class);
+                }
+                mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(comment.getObjectId("_id"))),
+                        new Update().set("replyCount", repliesIds.size()).unset("subComments"), Comment.class);
+            }
+        }
+        commentService.refreshPreviews(postId);
+        long count = mongoTemplate.count(Query.query(Criteria.where("postId").is(postId)), Comment.class);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(post.getObjectId("_id"))),
+                new Update().set("commentCount", count).unset("comments"), BasePost.class);
+    }
+
+    private List<ObjectId> idsOf(List<?> references) {
+        if(references == null){
+            return List.of();
+        }
+        return references.stream()
+                .map(reference -> reference instanceof DBRef ? ((DBRef) reference).getId() : reference)
+                .filter(id -> id instanceof ObjectId)
+                .map(id -> (ObjectId) id)
+                .collect(Collectors.toList());
+    }
+}
@@ -1,6 +1,12 @@
 package com.rafaelhosaka.shareme.comment;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.util.List;
 
 public interface CommentRepository extends MongoRepository<Comment, String> {
+
+    @Query(value = "{ 'parentId' : ?0 }", fields = "{ '_id' : 1 }")
+    List<Comment> getReplyIdsByParentId(String parentId);
 }
@@ -2,40 +2,74 @@ package com.rafaelhosaka.shareme.comment;
 
 import com.rafaelhosaka.shareme.exception.CommentNotFoundException;
 import com.rafaelhosaka.shareme.exception.PostNotFoundException;
+import com.rafaelhosaka.shareme.like.LikeService;
+import com.rafaelhosaka.shareme.pagination.Cursor;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
 import com.rafaelhosaka.shareme.post.BasePost;
-import com.rafaelhosaka.shareme.post.Post;
-import com.rafaelhosaka.shareme.post.PostRepository;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.ResponseEntity;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.function.LongConsumer;
 import java.util.stream.Collectors;
 
+/**
+ * Comments reference their post with postId and replies their comment with parentId, and are read a page
+ * at a time. The post keeps a commentCount and the newest top level comments as previews, so reading
+ * a post never loads its whole discussion.
+ */
 @Service
+@PropertySource("classpath:application.properties")
 public class CommentService {
-    private PostRepository postRepository;
-    private CommentRepository commentRepository;
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "dateCreated", "id");
+    private static final Sort OLDEST_FIRST = Sort.by(Sort.Direction.ASC, "dateCreated", "id");
+
+    private final CommentRepository commentRepository;
+    private final LikeService likeService;
+    private final MongoTemplate mongoTemplate;
+    private final int previewSize;
+    private final int maxImportSize;
 
     @Autowired
-    public CommentService(PostRepository postRepository, CommentRepository commentRepository) {
-        this.postRepository = postRepository;
+    public CommentService(CommentRepository commentRepository,
+                          LikeService likeService,
+                          MongoTemplate mongoTemplate,
+                          Environment environment) {
         this.commentRepository = commentRepository;
+        this.likeService = likeService;
+        this.mongoTemplate = mongoTemplate;
+        this.previewSize = environment.getProperty("comment.preview.size", Integer.class, 3);
+        this.maxImportSize = environment.getProperty("comment.import.max-size", Integer.class, 5000);
     }
 
     public Comment newComment(Comment comment, String postId) throws PostNotFoundException {
-        BasePost post = postRepository.findById(postId).orElseThrow(
-                () -> new PostNotFoundException(("Post with ID "+postId+" not found"))
-        );
+        if(!mongoTemplate.exists(byId(postId), BasePost.class)){
+            throw new PostNotFoundException(("Post with ID "+postId+" not found"));
+        }
 
+        comment.setId(null);
+        comment.setPostId(postId);
+        comment.setParentId(null);
+        comment.setReplyCount(0);
+        comment.setLikeCount(0);
         comment.setDateCreated(LocalDateTime.now());
-        comment.setSubComments(new ArrayList<>());
         comment = commentRepository.save(comment);
-        post.getComments().add(comment);
-        postRepository.save(post);
+        mongoTemplate.updateFirst(byId(postId),
+                new Update().inc("commentCount", 1).push("commentPreviews").atPosition(0).slice(previewSize).each(comment),
+                BasePost.class);
 
         return comment;
     }
@@ -45,44 +79,245 @@ public class CommentService {
                 () -> new CommentNotFoundException(("Comment with ID "+parentCommentId+" not found"))
         );
 
-        comment.setDateCreated(LocalDateTime.now());
+        comment.setId(null);
+        comment.setPostId(parentComment.getPostId());
         comment.setParentId(parentCommentId);
+        comment.setReplyCount(0);
+        comment.setLikeCount(0);
+        comment.setDateCreated(LocalDateTime.now());
         comment = commentRepository.save(comment);
-        parentComment.getSubComments().add(comment);
-        parentComment = commentRepository.save(parentComment);
+        mongoTemplate.updateFirst(byId(parentCommentId), new Update().inc("replyCount", 1), Comment.class);
+        mongoTemplate.updateFirst(byId(parentComment.getPostId()), new Update().inc("commentCount", 1), BasePost.class);
+        parentComment.setReplyCount(parentComment.getReplyCount() + 1);
 
         return parentComment;
     }
 
+    /**
+     * Inserts the comments with one bulk write, after checking their posts and parents with one query each,
+     * then updates the counters and previews of every post and parent once. In ordered mode the import stops
+     * at the first failure and the following comments are skipped, otherwise every valid comment is inserted.
+     */
+    public List<CommentImportResult> importComments(List<CommentImport> imports, boolean ordered) throws IllegalArgumentException {
+        if(imports.size() > maxImportSize){
+            throw new IllegalArgumentException("At most "+maxImportSize+" comments can be imported at once");
+        }
+        CommentImportResult[] results = new CommentImportResult[imports.size()];
+
+        Query postsQuery = Query.query(Criteria.where("_id").in(ObjectIds.from(
+                imports.stream().map(CommentImport::getPostId).filter(Objects::nonNull).collect(Collectors.toSet()))));
+        postsQuery.fields().include("id");
+        Set<String> postsIds = mongoTemplate.find(postsQuery, BasePost.class).stream()
+                .map(BasePost::getId)
+                .collect(Collectors.toSet());
+        Query parentsQuery = Query.query(Criteria.where("_id").in(ObjectIds.from(
+                imports.stream().map(CommentImport::getParentId).filter(Objects::nonNull).collect(Collectors.toSet()))));
+        parentsQuery.fields().include("id").include("postId");
+        Map<String, String> parentsPostIds = mongoTemplate.find(parentsQuery, Comment.class).stream()
+                .filter(parent -> parent.getPostId() != null)
+                .collect(Collectors.toMap(Comment::getId, Comment::getPostId));
+
+        List<Comment> comments = new ArrayList<>();
+        List<Integer> indexes = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        boolean failed = false;
+        for (int i = 0; i < imports.size(); i++) {
+            if(ordered && failed){
+                results[i] = new CommentImportResult(i, null, CommentImportStatus.SKIPPED, null);
+                continue;
+            }
+            CommentImport item = imports.get(i);
+            String error = validate(item, postsIds, parentsPostIds);
+            if(error != null){
+                results[i] = new CommentImportResult(i, null, CommentImportStatus.FAILED, error);
+                failed = true;
+                continue;
+            }
+            Comment comment = new Comment(item.getPostId(), item.getParentId(), 0);
+            comment.setId(new ObjectId().toHexString());
+            comment.setUserId(item.getUserId());
+            comment.setDescription(item.getDescription());
+            comment.setDateCreated(item.getDateCreated() != null ? item.getDateCreated() : now);
+            comments.add(comment);
+            indexes.add(i);
+        }
+
+        if(!comments.isEmpty()){
+            BulkOperations bulk = mongoTemplate.bulkOps(ordered ? BulkOperations.BulkMode.ORDERED : BulkOperations.BulkMode.UNORDERED, Comment.class);
+            bulk.insert(comments);
+            try {
+                bulk.execute();
+            }catch (BulkOperationException e){
+                int firstError = comments.size();
+                for (BulkWriteError error : e.getErrors()) {
+                    int index = indexes.get(error.getIndex());
+                    results[index] = new CommentImportResult(index, null, CommentImportStatus.FAILED, error.getMessage());
+                    firstError = Math.min(firstError, error.getIndex());
+                }
+                for (int k = firstError + 1; ordered && k < comments.size(); k++) {
+                    int index = indexes.get(k);
+                    results[index] = new CommentImportResult(index, null, CommentImportStatus.SKIPPED, null);
+                }
+            }
+        }
+
+        List<Comment> created = new ArrayList<>();
+        for (int k = 0; k < comments.size(); k++) {
+            int index = indexes.get(k);
+            if(results[index] == null){
+                results[index] = new CommentImportResult(index, comments.get(k).getId(), CommentImportStatus.CREATED, null);
+                created.add(comments.get(k));
+            }
+        }
+        updateCounters(created);
+        return Arrays.asList(results);
+    }
+
+    public CursorPage<Comment> getPostComments(String postId, String userId, String cursor, int size, boolean newestFirst) throws IllegalArgumentException {
+        return page(Criteria.where("postId").is(postId).and("parentId").is(null), userId, cursor, size, newestFirst);
+    }
+
+    public CursorPage<Comment> getReplies(String parentCommentId, String userId, String cursor, int size, boolean newestFirst) throws IllegalArgumentException {
+        return page(Criteria.where("parentId").is(parentCommentId), userId, cursor, size, newestFirst);
+    }
+
     public void deleteComment(String commentId, String postId) throws  CommentNotFoundException, PostNotFoundException{
         Comment comment = commentRepository.findById(commentId).orElseThrow(
                 () -> new CommentNotFoundException(("Comment with ID "+commentId+" not found"))
         );
+        if(comment.getPostId() != null && !comment.getPostId().equals(postId)){
+            throw new PostNotFoundException(("Comment with ID "+commentId+" not found in post "+postId));
+        }
 
-        BasePost post = postRepository.findById(postId).orElseThrow(
-                () -> new PostNotFoundException(("Comment with ID "+commentId+" not found"))
-        );
-
+        long deleted = 1;
         if(comment.getParentId() != null) {
-            Comment parentComment = commentRepository.findById(comment.getParentId()).orElseThrow(
-                    () -> new CommentNotFoundException(("Comment with ID "+comment.getParentId()+" not found"))
-            );
-
-            List<BaseComment> updatedSubComments = parentComment.getSubComments().stream().filter(c -> !c.getId().equals(comment.getId())).collect(Collectors.toList());
-            parentComment.setSubComments(updatedSubComments);
-            commentRepository.save(parentComment);
+            mongoTemplate.updateFirst(byId(comment.getParentId()), new Update().inc("replyCount", -1), Comment.class);
         }else {
-            for (BaseComment subComment: comment.getSubComments()) {
-                commentRepository.delete((Comment)subComment);
-            }
-            List<Comment> updatedComments = post.getComments().stream().filter(c -> !c.getId().equals(commentId)).collect(Collectors.toList());
-            post.setComments(updatedComments);
-            postRepository.save(post);
+            List<String> repliesIds = commentRepository.getReplyIdsByParentId(commentId).stream()
+                    .map(Comment::getId)
+                    .collect(Collectors.toList());
+            mongoTemplate.remove(Query.query(Criteria.where("parentId").is(commentId)), Comment.class);
+            likeService.deleteLikes(repliesIds);
+            deleted += repliesIds.size();
         }
         commentRepository.delete(comment);
+        likeService.deleteLikes(List.of(comment.getId()));
+
+        mongoTemplate.updateFirst(byId(postId), new Update().inc("commentCount", -deleted), BasePost.class);
+        if(comment.getParentId() == null){
+            refreshPreviews(postId);
+        }
+    }
+
+    /**
+     * Deletes every comment and reply of a post with their likes, three bulk operations per batch.
+     * The progress callback receives the number of comments deleted by each batch.
+     */
+    public long deletePostComments(String postId, int batchSize, LongConsumer onBatch) {
+        long deleted = 0;
+        while (true) {
+            Query query = Query.query(Criteria.where("postId").is(postId)).limit(batchSize);
+            query.fields().include("id");
+            List<String> commentsIds = mongoTemplate.find(query, Comment.class).stream()
+                    .map(Comment::getId)
+                    .collect(Collectors.toList());
+            if(commentsIds.isEmpty()){
+                return deleted;
+            }
+            mongoTemplate.remove(Query.query(Criteria.where("_id").in(ObjectIds.from(commentsIds))), Comment.class);
+            likeService.deleteLikes(commentsIds);
+            deleted += commentsIds.size();
+            onBatch.accept(commentsIds.size());
+        }
     }
 
+    /**
+     * Only the description can be edited, the counters and the position in the thread are kept.
+     */
     public Comment updateComment(Comment comment) {
-        return commentRepository.save(comment);
+        mongoTemplate.updateFirst(byId(comment.getId()), Update.update("description", comment.getDescription()), Comment.class);
+        Comment updated = commentRepository.findById(comment.getId()).orElse(comment);
+        if(updated.getPostId() != null && updated.getParentId() == null){
+            mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(new ObjectId(updated.getPostId())).and("commentPreviews._id").is(new ObjectId(updated.getId()))),
+                    Update.update("commentPreviews.$.description", updated.getDescription()),
+                    BasePost.class);
+        }
+        return updated;
+    }
+
+    public void refreshPreviews(String postId) {
+        Query query = Query.query(Criteria.where("postId").is(postId).and("parentId").is(null))
+                .with(NEWEST_FIRST)
+                .limit(previewSize);
+        List<Comment> previews = mongoTemplate.find(query, Comment.class);
+        mongoTemplate.updateFirst(byId(postId), Update.update("commentPreviews", previews), BasePost.class);
+    }
+
+    private String validate(CommentImport item, Set<String> postsIds, Map<String, String> parentsPostIds) {
+        if(item.getUserId() == null || item.getUserId().isEmpty()){
+            return "Missing userId";
+        }
+        if(item.getDescription() == null || item.getDescription().isEmpty()){
+            return "Missing description";
+        }
+        if(!postsIds.contains(item.getPostId())){
+            return "Post with ID "+item.getPostId()+" not found";
+        }
+        if(item.getParentId() != null && !item.getPostId().equals(parentsPostIds.get(item.getParentId()))){
+            return "Comment with ID "+item.getParentId()+" not found in post "+item.getPostId();
+        }
+        return null;
+    }
+
+    private void updateCounters(List<Comment> created) {
+        if(created.isEmpty()){
+            return;
+        }
+        BulkOperations posts = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BasePost.class);
+        created.stream().collect(Collectors.groupingBy(Comment::getPostId)).forEach((postId, postComments) -> {
+            Update update = new Update().inc("commentCount", postComments.size());
+            Comment[] topLevel = postComments.stream().filter(comment -> comment.getParentId() == null).toArray(Comment[]::new);
+            if(topLevel.length > 0){
+                update.push("commentPreviews").sort(Sort.by(Sort.Direction.DESC, "dateCreated")).slice(previewSize).each((Object[]) topLevel);
+            }
+            posts.updateOne(byId(postId), update);
+        });
+        posts.execute();
+
+        Map<String, Long> replies = created.stream()
+                .filter(comment -> comment.getParentId() != null)
+                .collect(Collectors.groupingBy(Comment::getParentId, Collectors.counting()));
+        if(!replies.isEmpty()){
+            BulkOperations parents = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Comment.class);
+            replies.forEach((parentId, count) -> parents.updateOne(byId(parentId), new Update().inc("replyCount", count)));
+            parents.execute();
+        }
+    }
+
+    private CursorPage<Comment> page(Criteria criteria, String userId, String cursor, int size, boolean newestFirst) throws IllegalArgumentException {
+        int pageSize = CursorPage.clampSize(size);
+        if(cursor != null && !cursor.isEmpty()){
+            Cursor after = Cursor.decode(cursor);
+            ObjectId afterId = new ObjectId(after.getId());
+            criteria = new Criteria().andOperator(criteria, newestFirst
+                    ? new Criteria().orOperator(
+                            Criteria.where("dateCreated").lt(after.getDate()),
+                            Criteria.where("dateCreated").is(after.getDate()).and("_id").lt(afterId))
+                    : new Criteria().orOperator(
+                            Criteria.where("dateCreated").gt(after.getDate()),
+                            Criteria.where("dateCreated").is(after.getDate()).and("_id").gt(afterId)));
+        }
+        Query query = Query.query(criteria)
+                .with(newestFirst ? NEWEST_FIRST : OLDEST_FIRST)
+                .limit(pageSize + 1);
+        CursorPage<Comment> page = CursorPage.of(mongoTemplate.find(query, Comment.class), pageSize,
+                comment -> new Cursor(comment.getDateCreated(), comment.getId()));
+        likeService.withCommentsLikeState(userId, page.getContent());
+        return page;
+    }
+
+    private static Query byId(String id) {
+        return Query.query(Criteria.where("_id").is(ObjectId.isValid(id) ? new ObjectId(id) : id));
     }
 }
@@ -0,0 +1,34 @@
+package com.rafaelhosaka.shareme.config;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+
+/**
+ * Records the startup migrations that completed, one document per migration, so they are not run on every startup.
+ */
+@Component
+public class Migrations {
+    private static final String COLLECTION = "migration";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public Migrations(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    public boolean isDone(String name) {
+        return mongoTemplate.exists(Query.query(Criteria.where("_id").is(name)), Document.class, COLLECTION);
+    }
+
+    public void markDone(String name) {
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(name)), Update.update("dateCompleted", new Date()), COLLECTION);
+    }
+}
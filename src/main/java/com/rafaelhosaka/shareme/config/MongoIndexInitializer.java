@@ -0,0 +1,55 @@
+package com.rafaelhosaka.shareme.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Creates the indexes declared with @Indexed / @CompoundIndex once the application is ready.
+ * Runs in the background so a slow or unreachable database does not block the startup.
+ */
+@Component
+@Slf4j
+public class MongoIndexInitializer {
+    private final MongoTemplate mongoTemplate;
+    private final MongoMappingContext mappingContext;
+
+    @Autowired
+    public MongoIndexInitializer(MongoTemplate mongoTemplate, MongoMappingContext mappingContext) {
+        this.mongoTemplate = mongoTemplate;
+        this.mappingContext = mappingContext;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void initIndexes() {
+        CompletableFuture.runAsync(this::ensureIndexes);
+    }
+
+    public void ensureIndexes() {
+        IndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+        for (MongoPersistentEntity<?> entity : mappingContext.getPersistentEntities()) {
+            if(!entity.isAnnotationPresent(Document.class)){
+                continue;
+            }
+            IndexOperations indexOps = mongoTemplate.indexOps(entity.getType());
+            resolver.resolveIndexFor(entity.getTypeInformation()).forEach(index -> {
+                try {
+                    indexOps.ensureIndex(index);
+                }catch (Exception e){
+                    log.error("Exception : could not create index {} on {} : {}", index.getIndexKeys(), entity.getCollection(), e.getMessage());
+                }
+            });
+        }
+    }
+}
@@ -75,9 +75,12 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
 
         //like
         http.authorizeRequests().antMatchers(PUT, "/api/like/post").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
+        http.authorizeRequests().antMatchers(GET, "/api/like/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
 
         //comment
         http.authorizeRequests().antMatchers(PUT, "/api/comment/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
+        http.authorizeRequests().antMatchers(GET, "/api/comment/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
+        http.authorizeRequests().antMatchers(POST, "/api/comment/bulk").hasAnyAuthority("ROLE_ADMIN");
 
         //post
         http.authorizeRequests().antMatchers(GET, "/api/post/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
@@ -86,9 +89,12 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
         http.authorizeRequests().antMatchers(PUT, "/api/post/update").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
 
         //message
+        http.authorizeRequests().antMatchers(GET, "/api/message/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
         http.authorizeRequests().antMatchers(POST, "/api/message/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
 
         //user
+        http.authorizeRequests().antMatchers(GET, "/api/user/cache/stats").hasAnyAuthority("ROLE_ADMIN");
+        http.authorizeRequests().antMatchers(POST, "/api/user/summaries/refresh").hasAnyAuthority("ROLE_ADMIN");
         http.authorizeRequests().antMatchers(GET, "/api/user/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
         http.authorizeRequests().antMatchers(PUT, "/api/user/upload").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
         http.authorizeRequests().antMatchers(PUT, "/api/user/uploadCoverImage").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
@@ -113,11 +119,21 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
         http.authorizeRequests().antMatchers(GET, "/api/chat/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
         http.authorizeRequests().antMatchers(PUT, "/api/chat/markAsRead").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
 
+        //search
+        http.authorizeRequests().antMatchers(GET, "/api/search/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
+
         //group
         http.authorizeRequests().antMatchers(GET, "/api/group/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
         http.authorizeRequests().antMatchers(POST, "/api/group/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
         http.authorizeRequests().antMatchers(PUT, "/api/group/uploadCoverImage").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
 
+        //timeline
+        http.authorizeRequests().antMatchers(GET, "/api/timeline/**").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
+        http.authorizeRequests().antMatchers(POST, "/api/timeline/rebuild").hasAnyAuthority("ROLE_ADMIN");
+
+        //filestore
+        http.authorizeRequests().antMatchers(GET, "/api/filestore/cache/stats").hasAnyAuthority("ROLE_ADMIN");
+
         //auth
 
         http.authorizeRequests().antMatchers(PUT, "/password/username").hasAnyAuthority("ROLE_USER", "ROLE_ADMIN");
@@ -139,6 +155,8 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
                 "/api/auth/refresh/**",
                 "/api/auth/password/token",
                 "/api/post/download/**",
+                //public like /api/post/download, the user, group and product images need a token like their downloads
+                "/api/post/image/**",
                 "/api/user/save/**",
                 "/ws/**"
                 };
@@ -0,0 +1,135 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Least recently used cache of remote files on the local disk, bounded by a byte budget.
+ * The index lives in memory, so files left over from a previous run are removed on startup. Only the files named
+ * by the cache are removed, other files in the directory are left alone.
+ */
+@Component
+@Slf4j
+@PropertySource("classpath:application.properties")
+@ConditionalOnProperty(name = "filestore.type", havingValue = "s3", matchIfMissing = true)
+public class DiskFileCache {
+    private static final String PREFIX = "cache-";
+    //files written by the cache, including the unprefixed names of earlier versions
+    private static final Pattern CACHE_FILE = Pattern.compile("^(" + PREFIX + ")?[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12}(\\.tmp)?$");
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    private final LinkedHashMap<String, StoredFile> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public DiskFileCache(Environment environment) {
+        this.directory = Paths.get(environment.getProperty("filestore.cache.directory",
+                Paths.get(System.getProperty("java.io.tmpdir"), "shareme-file-cache").toString()));
+        this.maxBytes = environment.getProperty("filestore.cache.max-bytes", Long.class, 512L * 1024 * 1024);
+        this.maxEntryBytes = environment.getProperty("filestore.cache.max-entry-bytes", Long.class, 10L * 1024 * 1024);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> CACHE_FILE.matcher(file.getFileName().toString()).matches() && Files.isRegularFile(file))
+                    .forEach(this::deleteQuietly);
+        }
+    }
+
+    public boolean accepts(StoredFileInfo info) {
+        return info.getContentLength() <= maxEntryBytes && info.getContentLength() <= maxBytes;
+    }
+
+    public synchronized StoredFile get(String path, String key) {
+        StoredFile file = entries.get(cacheKey(path, key));
+        if(file == null){
+            misses.incrementAndGet();
+        }else{
+            hits.incrementAndGet();
+        }
+        return file;
+    }
+
+    public StoredFile put(String path, String key, StoredFileInfo info, InputStream inputStream) throws IOException {
+        Path target = directory.resolve(PREFIX + UUID.randomUUID());
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try {
+            Files.copy(inputStream, temp);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        }catch (IOException e){
+            deleteQuietly(temp);
+            throw e;
+        }
+        info.setContentLength(Files.size(target));
+        StoredFile file = new StoredFile(path, key, info, target);
+
+        synchronized (this) {
+            StoredFile previous = entries.put(cacheKey(path, key), file);
+            if(previous != null){
+                remove(previous);
+            }
+            bytes += info.getContentLength();
+            Iterator<Map.Entry<String, StoredFile>> eldest = entries.entrySet().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                StoredFile evicted = eldest.next().getValue();
+                eldest.remove();
+                remove(evicted);
+                evictions.incrementAndGet();
+            }
+        }
+        return file;
+    }
+
+    public synchronized void invalidate(String path, String key) {
+        StoredFile file = entries.remove(cacheKey(path, key));
+        if(file != null){
+            remove(file);
+        }
+    }
+
+    public synchronized FileCacheStats getStats() {
+        return new FileCacheStats(hits.get(), misses.get(), evictions.get(), entries.size(), bytes, maxBytes);
+    }
+
+    private void remove(StoredFile file) {
+        bytes -= file.getInfo().getContentLength();
+        deleteQuietly(file.getLocalPath());
+    }
+
+    private void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        }catch (IOException e){
+            log.error("Exception : could not delete cached file {} : {}", file, e.getMessage());
+        }
+    }
+
+    private String cacheKey(String path, String key) {
+        return path + "/" + key;
+    }
+}
@@ -0,0 +1,17 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FileCacheStats {
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long entries;
+    private long bytes;
+    private long maxBytes;
+}
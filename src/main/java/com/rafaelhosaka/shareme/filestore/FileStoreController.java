@@ -0,0 +1,25 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("api/filestore")
+@ConditionalOnProperty(name = "filestore.type", havingValue = "s3", matchIfMissing = true)
+public class FileStoreController {
+    private final DiskFileCache fileCache;
+
+    @Autowired
+    public FileStoreController(DiskFileCache fileCache) {
+        this.fileCache = fileCache;
+    }
+
+    @GetMapping("/cache/stats")
+    public ResponseEntity<FileCacheStats> getCacheStats(){
+        return ResponseEntity.ok(fileCache.getStats());
+    }
+}
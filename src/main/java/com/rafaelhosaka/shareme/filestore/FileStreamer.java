@@ -0,0 +1,112 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Component
+@PropertySource("classpath:application.properties")
+public class FileStreamer {
+    private final FileStore fileStore;
+    private final ImageDerivativeService imageDerivativeService;
+    private final CacheControl cacheControl;
+
+    @Autowired
+    public FileStreamer(FileStore fileStore, ImageDerivativeService imageDerivativeService, Environment environment) {
+        this.fileStore = fileStore;
+        this.imageDerivativeService = imageDerivativeService;
+        this.cacheControl = CacheControl
+                .maxAge(environment.getProperty("filestore.cache-control.max-age", Long.class, 300L), TimeUnit.SECONDS)
+                .cachePrivate();
+    }
+
+    public void write(String path, String key, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        write(path, key, null, request, response);
+    }
+
+    /**
+     * Serves the smallest derivative covering the requested size, falling back to the original
+     * when no size is requested or the derivative has not been generated.
+     */
+    public void write(String path, String key, Integer size, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        StoredFile file = null;
+        ImageSize variant = ImageSize.fit(size);
+        if(variant != null && key != null && !key.isEmpty()){
+            file = imageDerivativeService.findDerivative(path, key, variant);
+        }
+        if(file == null){
+            file = fileStore.download(path, key);
+        }
+        if(file == null){
+            response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+            return;
+        }
+        StoredFileInfo info = file.getInfo();
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl.getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if(new ServletWebRequest(request, response).checkNotModified(info.getETag(), info.getLastModified())){
+            return;
+        }
+
+        long length = info.getContentLength();
+        long start = 0;
+        long end = length - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if(range != null && length > 0 && (ifRange == null || ifRange.equals(info.getETag()))){
+            try {
+                List<HttpRange> ranges = HttpRange.parseRanges(range);
+                //multiple ranges are answered with the whole file
+                if(ranges.size() == 1){
+                    start = ranges.get(0).getRangeStart(length);
+                    end = ranges.get(0).getRangeEnd(length);
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+                }
+            }catch (IllegalArgumentException e){
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+        }
+
+        response.setContentType(info.getContentType());
+        response.setContentLengthLong(end - start + 1);
+        if(length == 0 || "HEAD".equals(request.getMethod())){
+            return;
+        }
+        if(file.isLocal()){
+            try (FileChannel channel = FileChannel.open(file.getLocalPath(), StandardOpenOption.READ)) {
+                WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+                long position = start;
+                while (position <= end) {
+                    position += channel.transferTo(position, end - position + 1, out);
+                }
+                return;
+            }catch (NoSuchFileException e){
+                //evicted between the lookup and the read, fall back to the remote copy
+            }
+        }
+        try (InputStream inputStream = fileStore.openStream(file.getPath(), file.getKey(), start, end)) {
+            inputStream.transferTo(response.getOutputStream());
+        }
+    }
+}
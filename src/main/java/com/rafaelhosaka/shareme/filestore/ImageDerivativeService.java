@@ -0,0 +1,207 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the resized copies listed in {@link ImageSize} once an image upload has completed.
+ * Images with transparency are written as PNG, everything else as JPEG. Images declaring more pixels than
+ * the budget are not decoded, and when the queue is full the upload keeps no derivatives: the original is served.
+ */
+@Service
+@Slf4j
+@PropertySource("classpath:application.properties")
+public class ImageDerivativeService {
+    private final FileStore fileStore;
+    private final ThreadPoolExecutor executor;
+    private final float jpegQuality;
+    private final long maxPixels;
+    private final long missTtlMillis;
+    private final int maxMisses;
+
+    //derivatives known not to exist, so serving a size does not ask the store again on every request
+    private final LinkedHashMap<String, Long> misses = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Autowired
+    public ImageDerivativeService(FileStore fileStore, Environment environment) {
+        this.fileStore = fileStore;
+        this.jpegQuality = environment.getProperty("filestore.derivatives.jpeg-quality", Float.class, 0.8f);
+        this.maxPixels = environment.getProperty("filestore.derivatives.max-pixels", Long.class, 40_000_000L);
+        this.missTtlMillis = environment.getProperty("filestore.derivatives.miss-ttl-seconds", Long.class, 300L) * 1000;
+        this.maxMisses = environment.getProperty("filestore.derivatives.max-misses", Integer.class, 10000);
+        int threads = environment.getProperty("filestore.derivatives.threads", Integer.class, 2);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(environment.getProperty("filestore.derivatives.queue-capacity", Integer.class, 100)),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public void generateAfter(CompletableFuture<Void> upload, String path, String fileName, String contentType) {
+        if(contentType == null || !contentType.startsWith("image/")){
+            return;
+        }
+        upload.thenRunAsync(() -> generate(path, fileName), executor)
+                .exceptionally(e -> {
+                    log.error("Exception : could not generate derivatives of {} : {}", fileName, e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Returns the derivative of the given size, or null when it does not exist.
+     */
+    public StoredFile findDerivative(String path, String fileName, ImageSize size) {
+        String key = size.keyFor(fileName);
+        String missKey = path + "/" + key;
+        long now = System.currentTimeMillis();
+        synchronized (misses) {
+            Long expiresAt = misses.get(missKey);
+            if(expiresAt != null && expiresAt > now){
+                return null;
+            }
+        }
+        StoredFile file = fileStore.download(path, key);
+        if(file == null){
+            synchronized (misses) {
+                misses.put(missKey, now + missTtlMillis);
+                Iterator<Map.Entry<String, Long>> eldest = misses.entrySet().iterator();
+                while (misses.size() > maxMisses && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+        return file;
+    }
+
+    public void generate(String path, String fileName) {
+        StoredFile original = fileStore.download(path, fileName);
+        if(original == null){
+            return;
+        }
+        BufferedImage image = read(original, fileName);
+        if(image == null){
+            return;
+        }
+
+        boolean alpha = image.getColorModel().hasAlpha();
+        for (ImageSize size : ImageSize.values()) {
+            if(Math.max(image.getWidth(), image.getHeight()) <= size.getPixels()){
+                //the original is already small enough to be served for this size
+                break;
+            }
+            byte[] content = encode(resize(image, size.getPixels(), alpha), alpha);
+            fileStore.upload(path, size.keyFor(fileName), alpha ? "image/png" : "image/jpeg", content);
+            synchronized (misses) {
+                misses.remove(path + "/" + size.keyFor(fileName));
+            }
+        }
+    }
+
+    /**
+     * Decodes the image once its declared dimensions are known to fit the pixel budget.
+     */
+    private BufferedImage read(StoredFile original, String fileName) {
+        try (InputStream inputStream = fileStore.openStream(original);
+             ImageInputStream imageInput = ImageIO.createImageInputStream(inputStream)) {
+            Iterator<ImageReader> readers = imageInput == null ? null : ImageIO.getImageReaders(imageInput);
+            if(readers == null || !readers.hasNext()){
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInput, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if(pixels > maxPixels){
+                    log.error("Exception : {} declares {} pixels, over the budget of {}, no derivatives generated", fileName, pixels, maxPixels);
+                    return null;
+                }
+                return reader.read(0);
+            }finally {
+                reader.dispose();
+            }
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void delete(String path, String fileName) {
+        for (ImageSize size : ImageSize.values()) {
+            fileStore.delete(path, size.keyFor(fileName));
+        }
+    }
+
+    private BufferedImage resize(BufferedImage image, int maxSide, boolean alpha) {
+        double scale = (double) maxSide / Math.max(image.getWidth(), image.getHeight());
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        //halve the image until close to the target, single bilinear passes alias on large reductions
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            BufferedImage next = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = next.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(current, 0, 0, width, height, null);
+            graphics.dispose();
+            current = next;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    private byte[] encode(BufferedImage image, boolean alpha) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if(alpha){
+                ImageIO.write(image, "png", out);
+                return out.toByteArray();
+            }
+            ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+                writer.setOutput(imageOut);
+                writer.write(null, new IIOImage(image, null, null), param);
+            }finally {
+                writer.dispose();
+            }
+            return out.toByteArray();
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Derivatives generated for every uploaded image, bounded by their longest side.
+ */
+public enum ImageSize {
+    SMALL(48),
+    MEDIUM(160),
+    LARGE(640);
+
+    private final int pixels;
+
+    ImageSize(int pixels) {
+        this.pixels = pixels;
+    }
+
+    public int getPixels() {
+        return pixels;
+    }
+
+    public String keyFor(String fileName) {
+        return String.format("%s-%d", fileName, pixels);
+    }
+
+    /**
+     * Smallest derivative at least as large as the requested size, or null when only the original is large enough.
+     */
+    public static ImageSize fit(Integer requested) {
+        if(requested == null){
+            return null;
+        }
+        return Arrays.stream(values())
+                .filter(size -> size.pixels >= requested)
+                .min(Comparator.comparingInt(ImageSize::getPixels))
+                .orElse(null);
+    }
+}
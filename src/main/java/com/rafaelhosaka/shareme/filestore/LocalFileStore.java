@@ -0,0 +1,202 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stores files under a local directory, path/key mirroring the S3 layout. Meant for development,
+ * CI and benchmarks of the media endpoints without a bucket. Since every file is local,
+ * downloads are served by the streamer straight from disk.
+ */
+@Service
+@PropertySource("classpath:application.properties")
+@ConditionalOnProperty(name = "filestore.type", havingValue = "local")
+public class LocalFileStore implements FileStore {
+    private static final String CONTENT_TYPE = "content-type";
+
+    private final Path root;
+
+    @Autowired
+    public LocalFileStore(Environment environment) throws IOException {
+        this.root = Paths.get(environment.getProperty("filestore.local.directory",
+                Paths.get(System.getProperty("java.io.tmpdir"), "shareme-files").toString()))
+                .toAbsolutePath()
+                .normalize();
+        Files.createDirectories(root);
+    }
+
+    @Override
+    public void upload(String path, String fileName, Optional<Map<String, String>> optionalMetadata, InputStream inputStream) {
+        String contentType = optionalMetadata.map(metadata -> metadata.get("Content-Type")).orElse(null);
+        try {
+            write(path, fileName, contentType, target -> Files.copy(inputStream, target, StandardCopyOption.REPLACE_EXISTING));
+        }catch (IOException e){
+            throw new IllegalStateException("Failed to store file", e);
+        }
+    }
+
+    @Override
+    public void upload(String path, String fileName, String contentType, byte[] content) {
+        try {
+            write(path, fileName, contentType, target -> Files.write(target, content));
+        }catch (IOException e){
+            throw new IllegalStateException("Failed to store file", e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> uploadAsync(String path, String fileName, MultipartFile file) throws IOException {
+        //the part is moved or copied directly into place, there is nothing left to do in the background
+        write(path, fileName, file.getContentType(), file::transferTo);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public StoredFile download(String path, String key) {
+        StoredFileInfo info = getFileInfo(path, key);
+        return info == null ? null : new StoredFile(path, key, info, resolve(path, key));
+    }
+
+    @Override
+    public InputStream openStream(StoredFile file) throws IOException {
+        return Files.newInputStream(file.getLocalPath());
+    }
+
+    @Override
+    public byte[] readAllBytes(StoredFile file) throws IOException {
+        return Files.readAllBytes(file.getLocalPath());
+    }
+
+    @Override
+    public StoredFileInfo getFileInfo(String path, String key) {
+        if(key == null || key.isEmpty()){
+            return null;
+        }
+        Path file = resolve(path, key);
+        try {
+            long size = Files.size(file);
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            return new StoredFileInfo(
+                    readContentType(file),
+                    size,
+                    "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(size) + "\"",
+                    lastModified);
+        }catch (NoSuchFileException e){
+            return null;
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public InputStream openStream(String path, String key, long start, long end) {
+        try {
+            return new RangeInputStream(
+                    Channels.newInputStream(Files.newByteChannel(resolve(path, key)).position(start)),
+                    end - start + 1);
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void delete(String path, String key) {
+        Path file = resolve(path, key);
+        try {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(metadataOf(file));
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void write(String path, String key, String contentType, FileWriter writer) throws IOException {
+        Path target = resolve(path, key);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), ".upload-", null);
+        try {
+            writer.writeTo(temp);
+            if(contentType != null){
+                Properties metadata = new Properties();
+                metadata.setProperty(CONTENT_TYPE, contentType);
+                try (OutputStream out = Files.newOutputStream(metadataOf(target))) {
+                    metadata.store(out, null);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private String readContentType(Path file) throws IOException {
+        Properties metadata = new Properties();
+        try (InputStream in = Files.newInputStream(metadataOf(file))) {
+            metadata.load(in);
+        }catch (NoSuchFileException e){
+            return Files.probeContentType(file);
+        }
+        return metadata.getProperty(CONTENT_TYPE);
+    }
+
+    private Path resolve(String path, String key) {
+        Path file = root.resolve(path).resolve(key).normalize();
+        if(!file.startsWith(root) || file.equals(root)){
+            throw new IllegalArgumentException("Invalid file key "+path+"/"+key);
+        }
+        return file;
+    }
+
+    private Path metadataOf(Path file) {
+        return file.resolveSibling("." + file.getFileName() + ".meta");
+    }
+
+    private interface FileWriter {
+        void writeTo(Path target) throws IOException;
+    }
+
+    private static class RangeInputStream extends FilterInputStream {
+        private long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if(remaining <= 0){
+                return -1;
+            }
+            int b = super.read();
+            if(b >= 0){
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if(remaining <= 0){
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if(read > 0){
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.transfer.TransferManager;
+import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Service
+@PropertySource("classpath:application.properties")
+@ConditionalOnProperty(name = "filestore.type", havingValue = "s3", matchIfMissing = true)
+public class S3FileStore implements FileStore {
+    private final AmazonS3 s3;
+    private final DiskFileCache fileCache;
+    private final TransferManager transferManager;
+    private final ThreadPoolExecutor uploadExecutor;
+    //downloads in progress, concurrent misses on the same file wait for the same download
+    private final ConcurrentHashMap<String, CompletableFuture<StoredFile>> downloads = new ConcurrentHashMap<>();
+    //uploads not finished yet, by temporary file
+    private final ConcurrentHashMap<Path, CompletableFuture<Void>> pendingUploads = new ConcurrentHashMap<>();
+    private final long shutdownTimeoutSeconds;
+    private Environment environment;
+
+    @Autowired
+    public S3FileStore(AmazonS3 s3, DiskFileCache fileCache, Environment environment) {
+        this.environment = environment;
+        this.s3 = s3;
+        this.fileCache = fileCache;
+        this.transferManager = TransferManagerBuilder.standard()
+                .withS3Client(s3)
+                .withMultipartUploadThreshold(environment.getProperty("filestore.upload.multipart-threshold", Long.class, 16L * 1024 * 1024))
+                .build();
+        int threads = environment.getProperty("filestore.upload.threads", Integer.class, 4);
+        //when the queue is full the request thread runs the upload itself, slowing down the producer
+        this.uploadExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(environment.getProperty("filestore.upload.queue-capacity", Integer.class, 100)),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        this.shutdownTimeoutSeconds = environment.getProperty("filestore.upload.shutdown-timeout-seconds", Long.class, 30L);
+    }
+
+    /**
+     * Lets the queued uploads finish, then fails the ones still unfinished after the timeout
+     * so that their documents are marked FAILED, and deletes their temporary files.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        uploadExecutor.shutdown();
+        try {
+            if(!uploadExecutor.awaitTermination(shutdownTimeoutSeconds, TimeUnit.SECONDS)){
+                uploadExecutor.shutdownNow();
+                uploadExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            }
+        }finally {
+            pendingUploads.forEach((temp, upload) -> fail(temp, upload, new IllegalStateException("Server shut down before the upload finished")));
+            transferManager.shutdownNow(false);
+        }
+    }
+
+    @Override
+    public void upload(String path,
+                     String fileName,
+                     Optional<Map<String, String>> optionalMetadata,
+                     InputStream inputStream){
+        ObjectMetadata metadata = new ObjectMetadata();
+        optionalMetadata.ifPresent(map -> {
+            if(!map.isEmpty()) {
+                map.forEach(metadata::addUserMetadata);
+            }
+        });
+
+        try{
+            invalidate(path, fileName);
+            s3.putObject(environment.getProperty("aws.bucket.name") + path,  fileName, inputStream, metadata);
+            invalidate(path, fileName);
+        }catch (AmazonServiceException e){
+            throw new IllegalStateException("Failed to store file to s3",e);
+        }
+    }
+
+    @Override
+    public void upload(String path, String fileName, String contentType, byte[] content){
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(contentType);
+        metadata.setContentLength(content.length);
+        try{
+            invalidate(path, fileName);
+            s3.putObject(environment.getProperty("aws.bucket.name") + path, fileName, new ByteArrayInputStream(content), metadata);
+            invalidate(path, fileName);
+        }catch (AmazonServiceException e){
+            throw new IllegalStateException("Failed to store file to s3",e);
+        }
+    }
+
+    /**
+     * Copies the part to a temporary file, since the multipart request is cleaned up once the request ends,
+     * and transfers it to S3 on the upload executor, using a multipart upload for large files.
+     */
+    @Override
+    public CompletableFuture<Void> uploadAsync(String path, String fileName, MultipartFile file) throws IOException {
+        Path temp = Files.createTempFile("shareme-upload-", null);
+        try {
+            file.transferTo(temp);
+        }catch (IOException e){
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        ObjectMetadata metadata = new ObjectMetadata();
+        getMetadata(file).forEach(metadata::addUserMetadata);
+        metadata.setContentType(file.getContentType());
+        metadata.setContentLength(file.getSize());
+
+        CompletableFuture<Void> upload = new CompletableFuture<>();
+        pendingUploads.put(temp, upload);
+        if(uploadExecutor.isShutdown()){
+            fail(temp, upload, new IllegalStateException("Server is shutting down"));
+            return upload;
+        }
+        try {
+            uploadExecutor.execute(() -> {
+                if(upload.isDone()){
+                    //failed by the shutdown
+                    return;
+                }
+                try {
+                    invalidate(path, fileName);
+                    transferManager.upload(new PutObjectRequest(environment.getProperty("aws.bucket.name") + path, fileName, temp.toFile())
+                            .withMetadata(metadata))
+                            .waitForCompletion();
+                    invalidate(path, fileName);
+                    upload.complete(null);
+                }catch (AmazonClientException e){
+                    upload.completeExceptionally(new IllegalStateException("Failed to store file to s3", e));
+                }catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                    upload.completeExceptionally(new IllegalStateException(e));
+                }catch (RuntimeException e){
+                    upload.completeExceptionally(e);
+                }finally {
+                    pendingUploads.remove(temp);
+                    temp.toFile().delete();
+                }
+            });
+        }catch (RejectedExecutionException e){
+            fail(temp, upload, new IllegalStateException("Server is shutting down", e));
+        }
+        return upload;
+    }
+
+    private void fail(Path temp, CompletableFuture<Void> upload, Exception e){
+        pendingUploads.remove(temp);
+        temp.toFile().delete();
+        upload.completeExceptionally(e);
+    }
+
+    @Override
+    public StoredFile download(String path, String key){
+        if(key == null || key.isEmpty()) {
+            return null;
+        }
+        StoredFile cached = fileCache.get(path, key);
+        if(cached != null){
+            return cached;
+        }
+        String downloadKey = path + "/" + key;
+        CompletableFuture<StoredFile> download = new CompletableFuture<>();
+        CompletableFuture<StoredFile> running = downloads.putIfAbsent(downloadKey, download);
+        if(running != null){
+            try {
+                return running.join();
+            }catch (Exception e){
+                //the other download failed, try on our own
+                return fetch(path, key);
+            }
+        }
+        try {
+            StoredFile file = fetch(path, key);
+            if(!downloads.remove(downloadKey, download) && file != null && file.isLocal()){
+                //the file was written while downloading, the copy may be outdated
+                fileCache.invalidate(path, key);
+                file = new StoredFile(path, key, file.getInfo(), null);
+            }
+            download.complete(file);
+            return file;
+        }catch (RuntimeException e){
+            downloads.remove(downloadKey, download);
+            download.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private StoredFile fetch(String path, String key){
+        try (S3Object object = s3.getObject(environment.getProperty("aws.bucket.name") + path, key)){
+            StoredFileInfo info = toFileInfo(object.getObjectMetadata());
+            if(!fileCache.accepts(info)){
+                object.getObjectContent().abort();
+                return new StoredFile(path, key, info, null);
+            }
+            return fileCache.put(path, key, info, object.getObjectContent());
+        }catch (AmazonServiceException e){
+            if(e.getStatusCode() == 404){
+                return null;
+            }
+            throw new IllegalStateException(e);
+        }catch (IOException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public InputStream openStream(StoredFile file) throws IOException {
+        if(file.isLocal()){
+            return Files.newInputStream(file.getLocalPath());
+        }
+        try{
+            return s3.getObject(environment.getProperty("aws.bucket.name") + file.getPath(), file.getKey()).getObjectContent();
+        }catch (AmazonServiceException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public byte[] readAllBytes(StoredFile file) throws IOException {
+        try (InputStream inputStream = openStream(file)){
+            return inputStream.readAllBytes();
+        }catch (NoSuchFileException e){
+            //evicted between the lookup and the read
+            return readAllBytes(new StoredFile(file.getPath(), file.getKey(), file.getInfo(), null));
+        }
+    }
+
+    @Override
+    public StoredFileInfo getFileInfo(String path, String key){
+        if(key == null || key.isEmpty()){
+            return null;
+        }
+        try{
+            return toFileInfo(s3.getObjectMetadata(environment.getProperty("aws.bucket.name") + path, key));
+        }catch (AmazonServiceException e){
+            if(e.getStatusCode() == 404){
+                return null;
+            }
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public InputStream openStream(String path, String key, long start, long end){
+        try{
+            return s3.getObject(new GetObjectRequest(environment.getProperty("aws.bucket.name") + path, key)
+                    .withRange(start, end))
+                    .getObjectContent();
+        }catch (AmazonServiceException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void delete(String path, String key){
+        invalidate(path, key);
+        s3.deleteObject(environment.getProperty("aws.bucket.name") + path, key);
+        invalidate(path, key);
+    }
+
+    /**
+     * Drops the cached copy, and marks a download in progress as outdated so it does not stay cached.
+     * Called before and after writing, a download overlapping the write cannot keep the previous bytes.
+     */
+    private void invalidate(String path, String key){
+        downloads.remove(path + "/" + key);
+        fileCache.invalidate(path, key);
+    }
+
+    private StoredFileInfo toFileInfo(ObjectMetadata metadata){
+        return new StoredFileInfo(
+                metadata.getUserMetadata().getOrDefault("content-type", metadata.getContentType()),
+                metadata.getContentLength(),
+                "\"" + metadata.getETag() + "\"",
+                metadata.getLastModified() == null ? -1 : metadata.getLastModified().getTime());
+    }
+}
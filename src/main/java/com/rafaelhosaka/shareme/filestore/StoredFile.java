@@ -0,0 +1,19 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.file.Path;
+
+@Getter
+@AllArgsConstructor
+public class StoredFile {
+    private final String path;
+    private final String key;
+    private final StoredFileInfo info;
+    private final Path localPath; //null when the file is only available remotely
+
+    public boolean isLocal() {
+        return localPath != null;
+    }
+}
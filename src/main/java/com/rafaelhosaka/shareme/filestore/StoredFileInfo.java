@@ -0,0 +1,15 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StoredFileInfo {
+    private String contentType;
+    private long contentLength;
+    private String eTag; //quoted
+    private long lastModified; //epoch millis, -1 when unknown
+}
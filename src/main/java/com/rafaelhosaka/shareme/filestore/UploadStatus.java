@@ -0,0 +1,7 @@
+package com.rafaelhosaka.shareme.filestore;
+
+public enum UploadStatus {
+    PENDING,
+    COMPLETED,
+    FAILED
+}
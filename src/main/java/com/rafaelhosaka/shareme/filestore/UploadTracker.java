@@ -0,0 +1,96 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mapping.PersistentEntity;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Writes the outcome of an asynchronous upload back to the document that owns the file.
+ * The update only applies while the document still points to the same file name,
+ * so a slow upload cannot overwrite the status of a newer one.
+ * Status fields are only ever written with targeted updates: documents holding one are updated with
+ * {@link #update(Object, String...)}, a full save of an entity read earlier would put back a stale status.
+ */
+@Component
+@Slf4j
+public class UploadTracker {
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public UploadTracker(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Points the document to the new file, pending until its upload is tracked.
+     */
+    public void pending(Class<?> documentType, String id, String fileNameField, String fileName, String statusField) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("id").is(id)),
+                Update.update(fileNameField, fileName).set(statusField, UploadStatus.PENDING),
+                documentType);
+    }
+
+    /**
+     * Writes every field of the entity except its id and the given status fields.
+     */
+    public <T> T update(T entity, String... statusFields) {
+        List<String> excluded = Arrays.asList(statusFields);
+        Document document = new Document();
+        mongoTemplate.getConverter().write(entity, document);
+        Object id = document.remove("_id");
+        if(id == null){
+            return mongoTemplate.save(entity);
+        }
+
+        Update update = new Update();
+        document.forEach((field, value) -> {
+            if(!excluded.contains(field)){
+                update.set(field, value);
+            }
+        });
+        PersistentEntity<?, MongoPersistentProperty> persistentEntity =
+                mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(entity.getClass());
+        //null fields are not written by the converter
+        persistentEntity.forEach(property -> {
+            String field = property.getFieldName();
+            if(!property.isIdProperty() && property.isWritable() && !document.containsKey(field) && !excluded.contains(field)){
+                update.unset(field);
+            }
+        });
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(id)), update, entity.getClass());
+        return entity;
+    }
+
+    public CompletableFuture<Void> track(CompletableFuture<Void> upload,
+                                         Class<?> documentType,
+                                         String id,
+                                         String fileNameField,
+                                         String fileName,
+                                         String statusField) {
+        return upload.whenComplete((result, e) -> {
+            if(e != null){
+                log.error("Exception : upload of {} failed : {}", fileName, e.getMessage());
+            }
+            try {
+                mongoTemplate.updateFirst(
+                        Query.query(Criteria.where("id").is(id).and(fileNameField).is(fileName)),
+                        Update.update(statusField, e == null ? UploadStatus.COMPLETED : UploadStatus.FAILED),
+                        documentType);
+            }catch (Exception ex){
+                log.error("Exception : could not update upload status of {} : {}", fileName, ex.getMessage());
+            }
+        });
+    }
+}
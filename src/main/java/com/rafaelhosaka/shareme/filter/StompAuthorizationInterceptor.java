@@ -0,0 +1,49 @@
+package com.rafaelhosaka.shareme.filter;
+
+import com.auth0.jwt.interfaces.DecodedJWT;
+import com.rafaelhosaka.shareme.jwt.JwtUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+
+/**
+ * Authenticates STOMP connections with the access token sent in the Authorization header of the CONNECT frame,
+ * the same token the REST api expects. Connections without a valid token are refused.
+ */
+@Slf4j
+public class StompAuthorizationInterceptor implements ChannelInterceptor {
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        StompHeaderAccessor accessor = MessageHeaderAccessor.getAccessor(message, StompHeaderAccessor.class);
+        if(accessor == null || accessor.getCommand() != StompCommand.CONNECT){
+            return message;
+        }
+        String authorizationHeader = accessor.getFirstNativeHeader(AUTHORIZATION);
+        if(authorizationHeader == null || !authorizationHeader.startsWith("Bearer ")){
+            throw new MessagingException("Missing access token");
+        }
+        try {
+            JwtUtils jwtUtils = new JwtUtils();
+            DecodedJWT decodedJWT = jwtUtils.decodeToken(authorizationHeader.substring("Bearer ".length()));
+            String[] roles = decodedJWT.getClaim("roles").asArray(String.class);
+            if(roles == null){
+                throw new MessagingException("Not an access token");
+            }
+            accessor.setUser(new UsernamePasswordAuthenticationToken(decodedJWT.getSubject(), null, jwtUtils.getAuthoritiesFromClaim(roles)));
+        }catch (MessagingException e){
+            throw e;
+        }catch (Exception e){
+            log.error("Error login : {}", e.getMessage());
+            throw new MessagingException("Invalid access token", e);
+        }
+        return message;
+    }
+}
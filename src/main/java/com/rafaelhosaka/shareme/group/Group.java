@@ -1,11 +1,13 @@
 package com.rafaelhosaka.shareme.group;
 
+import com.rafaelhosaka.shareme.filestore.UploadStatus;
 import com.rafaelhosaka.shareme.post.Post;
 import com.rafaelhosaka.shareme.user.UserProfile;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
@@ -21,13 +23,21 @@ public class Group {
     @Id
     private String id;
 
+    //read from the memberships, and taken as the first admins when the group is created
+    @Transient
     private Set<String> admins = new HashSet<>();
 
+    //read from the memberships, the latest ones only, memberCount holds the total
+    @Transient
     private Set<String> members = new HashSet<>();
 
+    private long memberCount;
+
     private String name;
 
     private String coverFileName;
 
+    private UploadStatus coverUploadStatus;
+
     private LocalDateTime dateCreated;
 }
@@ -2,6 +2,7 @@ package com.rafaelhosaka.shareme.group;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.rafaelhosaka.shareme.exception.GroupNotFoundException;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
 import com.rafaelhosaka.shareme.user.UserProfile;
 import com.rafaelhosaka.shareme.utils.JsonConverter;
 import org.springframework.http.HttpStatus;
@@ -10,6 +11,9 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
 
 @RestController
@@ -35,6 +39,26 @@ public class GroupController {
         }
     }
 
+    @GetMapping("/{id}/members")
+    public ResponseEntity<CursorPage<GroupMember>> getMembers(@PathVariable("id") String groupId,
+                                                             @RequestParam(value = "cursor", required = false) String cursor,
+                                                             @RequestParam(value = "size", defaultValue = "20") int size){
+        try {
+            return ResponseEntity.ok(groupService.getMembers(groupId, cursor, size));
+        }catch(IllegalArgumentException e){
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @GetMapping("/{id}/members/{userId}")
+    public ResponseEntity<GroupMembership> getMembership(@PathVariable("id") String groupId, @PathVariable("userId") String userId){
+        try {
+            return ResponseEntity.ok(groupService.getMembership(groupId, userId));
+        }catch(GroupNotFoundException e){
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     @GetMapping("/user/{id}")
     public ResponseEntity<List<Group>> getGroupsByUserId(@PathVariable("id")String userId){
         return ResponseEntity.ok().body(groupService.getGroupsByUserId(userId));
@@ -78,6 +102,17 @@ public class GroupController {
         }
     }
 
+    @GetMapping("/image/{id}")
+    public void streamGroupImage(@PathVariable("id") String id,
+                                 @RequestParam(value = "size", required = false) Integer size,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            groupService.streamGroupImage(id, size, request, response);
+        }catch (GroupNotFoundException e){
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+        }
+    }
+
     @PutMapping("/join")
     public ResponseEntity<Group> join(@RequestPart("groupId") String groupId, @RequestPart("userId")String userId)  {
         try {
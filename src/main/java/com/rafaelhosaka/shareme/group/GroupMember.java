@@ -0,0 +1,19 @@
+package com.rafaelhosaka.shareme.group;
+
+import com.rafaelhosaka.shareme.user.UserSummary;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GroupMember {
+    private UserSummary user;
+
+    private GroupRole role;
+
+    private LocalDateTime joinedAt;
+}
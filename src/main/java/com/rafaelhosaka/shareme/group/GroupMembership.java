@@ -0,0 +1,33 @@
+package com.rafaelhosaka.shareme.group;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Document(collection = "groupMembership")
+@CompoundIndexes({
+        @CompoundIndex(name = "membership_group_user_idx", def = "{'groupId': 1, 'userId': 1}", unique = true),
+        @CompoundIndex(name = "membership_group_joined_idx", def = "{'groupId': 1, 'joinedAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "membership_user_joined_idx", def = "{'userId': 1, 'joinedAt': -1}")
+})
+public class GroupMembership {
+    @Id
+    private String id;
+
+    private String groupId;
+
+    private String userId;
+
+    private GroupRole role;
+
+    private LocalDateTime joinedAt;
+}
@@ -0,0 +1,88 @@
+package com.rafaelhosaka.shareme.group;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Moves the admins and members embedded in groups to the membership collection. The arrays are unset only
+ * once the memberships are written and counted, so an interrupted migration resumes on the next startup.
+ */
+@Component
+@Slf4j
+public class GroupMembershipMigration {
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public GroupMembershipMigration(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        CompletableFuture.runAsync(this::migrate);
+    }
+
+    public void migrate() {
+        try {
+            int migrated = 0;
+            BasicQuery query = new BasicQuery(
+                    "{ '$or' : [ { 'admins' : { '$exists' : true } }, { 'members' : { '$exists' : true } } ] }",
+                    "{ 'admins' : 1, 'members' : 1, 'dateCreated' : 1 }");
+            try (CloseableIterator<Document> groups = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(Group.class))) {
+                while (groups.hasNext()) {
+                    migrate(groups.next());
+                    migrated++;
+                }
+            }
+            if(migrated > 0){
+                log.info("Moved the members of {} groups to the membership collection", migrated);
+            }
+        }catch (Exception e){
+            log.error("Exception : could not migrate group members : {}", e.getMessage());
+        }
+    }
+
+    private void migrate(Document group) {
+        String groupId = group.getObjectId("_id").toHexString();
+        //the join date of the embedded members is unknown, the creation of the group is the closest bound
+        Object date = group.get("dateCreated");
+        Object joinedAt = date != null ? date : LocalDateTime.now();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, GroupMembership.class);
+        int upserts = 0;
+        for (Object admin : group.get("admins", List.class) == null ? List.of() : group.get("admins", List.class)) {
+            bulk.upsert(membershipOf(groupId, admin),
+                    new Update().set("role", GroupRole.ADMIN).setOnInsert("joinedAt", joinedAt));
+            upserts++;
+        }
+        for (Object member : group.get("members", List.class) == null ? List.of() : group.get("members", List.class)) {
+            bulk.upsert(membershipOf(groupId, member),
+                    new Update().setOnInsert("role", GroupRole.MEMBER).setOnInsert("joinedAt", joinedAt));
+            upserts++;
+        }
+        if(upserts > 0){
+            bulk.execute();
+        }
+        long count = mongoTemplate.count(Query.query(Criteria.where("groupId").is(groupId)), GroupMembership.class);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(group.getObjectId("_id"))),
+                new Update().set("memberCount", count).unset("admins").unset("members"), Group.class);
+    }
+
+    private Query membershipOf(String groupId, Object userId) {
+        return Query.query(Criteria.where("groupId").is(groupId).and("userId").is(String.valueOf(userId)));
+    }
+}
@@ -0,0 +1,32 @@
+package com.rafaelhosaka.shareme.group;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface GroupMembershipRepository extends MongoRepository<GroupMembership, String> {
+
+    @Query("{ 'groupId' : ?0 }")
+    List<GroupMembership> getMemberships(String groupId, Pageable pageable);
+
+    @Query("{ 'groupId' : ?0, " +
+            "'$or' : [ { 'joinedAt' : { '$lt' : ?1 } }, { 'joinedAt' : ?1, '_id' : { '$lt' : ?2 } } ] }")
+    List<GroupMembership> getMembershipsBefore(String groupId, LocalDateTime date, ObjectId id, Pageable pageable);
+
+    @Query("{ 'groupId' : ?0, 'role' : ?1 }")
+    List<GroupMembership> getMembershipsByRole(String groupId, GroupRole role, Pageable pageable);
+
+    @Query(value = "{ 'groupId' : ?0 }", fields = "{ 'userId' : 1 }")
+    List<GroupMembership> getMemberIds(String groupId, Pageable pageable);
+
+    @Query(value = "{ 'userId' : ?0 }", fields = "{ 'groupId' : 1 }")
+    List<GroupMembership> getGroupIdsByUserId(String userId, Pageable pageable);
+
+    @Query("{ 'groupId' : ?0, 'userId' : ?1 }")
+    Optional<GroupMembership> getMembership(String groupId, String userId);
+}
@@ -5,11 +5,12 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface GroupRepository extends MongoRepository<Group, String> {
-    @Query("{'$or':[ {'admins': {'$in': [?0]} }, {'members': {'$in' : [?0]}} ] }")
-    List<Group> getGroupsByUserId(String userId);
-
     @Query("{ 'name' : { $regex: ?0, $options: 'i'  }}")
     List<Group> searchGroupsContainsName(String name);
+
+    @Query(value = "{ '_id' : ?0 }", fields = "{ 'coverFileName' : 1 }")
+    Optional<Group> getCoverFileNameById(String id);
 }
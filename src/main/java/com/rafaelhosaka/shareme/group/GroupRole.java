@@ -0,0 +1,6 @@
+package com.rafaelhosaka.shareme.group;
+
+public enum GroupRole {
+    ADMIN,
+    MEMBER
+}
@@ -1,58 +1,161 @@
 package com.rafaelhosaka.shareme.group;
 
-import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.util.IOUtils;
+import com.mongodb.client.result.UpdateResult;
 import com.rafaelhosaka.shareme.bucket.BucketName;
 import com.rafaelhosaka.shareme.exception.GroupNotFoundException;
 import com.rafaelhosaka.shareme.filestore.FileStore;
-import com.rafaelhosaka.shareme.post.Post;
-import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.filestore.FileStreamer;
+import com.rafaelhosaka.shareme.filestore.ImageDerivativeService;
+import com.rafaelhosaka.shareme.filestore.StoredFile;
+import com.rafaelhosaka.shareme.filestore.UploadStatus;
+import com.rafaelhosaka.shareme.filestore.UploadTracker;
+import com.rafaelhosaka.shareme.pagination.Cursor;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
+import com.rafaelhosaka.shareme.search.SearchService;
+import com.rafaelhosaka.shareme.user.UserProfileService;
+import com.rafaelhosaka.shareme.user.UserSummary;
 import com.rafaelhosaka.shareme.utils.Format;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
+/**
+ * Memberships are stored one per (groupId, userId) in their own collection, and counted in the memberCount
+ * of the group, so joining or leaving a group never rewrites the group document.
+ */
 @Service
 public class GroupService {
+    private static final Sort LAST_JOINED_FIRST = Sort.by(Sort.Direction.DESC, "joinedAt", "id");
+    private static final int MAX_ADMINS_SHOWN = 100;
+    private static final int MAX_MEMBERS_SHOWN = 1000;
+
     private GroupRepository groupRepository;
     private FileStore fileStore;
+    private FileStreamer fileStreamer;
+    private UploadTracker uploadTracker;
+    private ImageDerivativeService imageDerivativeService;
+    private GroupMembershipRepository membershipRepository;
+    private UserProfileService userService;
+    private MongoTemplate mongoTemplate;
+    private SearchService searchService;
 
     @Autowired
-    public GroupService(GroupRepository groupRepository, FileStore fileStore){
+    public GroupService(GroupRepository groupRepository,
+                        FileStore fileStore,
+                        FileStreamer fileStreamer,
+                        UploadTracker uploadTracker,
+                        ImageDerivativeService imageDerivativeService,
+                        GroupMembershipRepository membershipRepository,
+                        UserProfileService userService,
+                        MongoTemplate mongoTemplate,
+                        SearchService searchService){
         this.groupRepository = groupRepository;
         this.fileStore = fileStore;
+        this.fileStreamer = fileStreamer;
+        this.uploadTracker = uploadTracker;
+        this.imageDerivativeService = imageDerivativeService;
+        this.membershipRepository = membershipRepository;
+        this.userService = userService;
+        this.mongoTemplate = mongoTemplate;
+        this.searchService = searchService;
     }
 
     public Group createGroup(Group group, MultipartFile file) {
+        Set<String> admins = group.getAdmins() == null ? new HashSet<>() : group.getAdmins();
+        group.setId(null);
         group.setDateCreated(LocalDateTime.now());
+        group.setMemberCount(admins.size());
         if(file == null){
             group = groupRepository.save(group);
         }else{
             String fileName =  String.format("%s-%s", file.getOriginalFilename(), UUID.randomUUID());
             group.setCoverFileName(fileName);
+            group.setCoverUploadStatus(UploadStatus.PENDING);
             group = groupRepository.save(group);
 
             try {
-                fileStore.upload(
-                        String.format("%s/%s", BucketName.GROUPS.getName(), group.getId()),
-                        fileName,
-                        Optional.of(fileStore.getMetadata(file)),
-                        file.getInputStream());
+                uploadCover(group, fileName, file);
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
 
+        String groupId = group.getId();
+        LocalDateTime joinedAt = group.getDateCreated();
+        membershipRepository.insert(admins.stream()
+                .map(userId -> new GroupMembership(null, groupId, userId, GroupRole.ADMIN, joinedAt))
+                .collect(Collectors.toList()));
+        group.setAdmins(admins);
+        group.setMembers(new HashSet<>(admins));
+        searchService.indexGroup(group);
         return group ;
     }
 
     public List<Group> getGroupsByUserId(String userId) {
-        return groupRepository.getGroupsByUserId(userId);
+        List<String> groupsIds = getGroupIdsOfUser(userId, Integer.MAX_VALUE);
+        Map<String, Group> groups = new HashMap<>();
+        groupRepository.findAllById(groupsIds).forEach(group -> groups.put(group.getId(), group));
+        return groupsIds.stream()
+                .map(groups::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Ids of the groups of the user, last joined first, from the membership index alone.
+     */
+    public List<String> getGroupIdsOfUser(String userId, int limit) {
+        return membershipRepository.getGroupIdsByUserId(userId, PageRequest.of(0, limit, Sort.by(Sort.Direction.DESC, "joinedAt"))).stream()
+                .map(GroupMembership::getGroupId)
+                .collect(Collectors.toList());
+    }
+
+    public CursorPage<GroupMember> getMembers(String groupId, String cursor, int size) throws IllegalArgumentException {
+        int pageSize = CursorPage.clampSize(size);
+        Pageable pageable = PageRequest.of(0, pageSize + 1, LAST_JOINED_FIRST);
+        List<GroupMembership> memberships;
+        if(cursor == null || cursor.isEmpty()){
+            memberships = membershipRepository.getMemberships(groupId, pageable);
+        }else{
+            Cursor after = Cursor.decode(cursor);
+            memberships = membershipRepository.getMembershipsBefore(groupId, after.getDate(), ObjectIds.from(after.getId()), pageable);
+        }
+        CursorPage<GroupMembership> page = CursorPage.of(memberships, pageSize,
+                membership -> new Cursor(membership.getJoinedAt(), membership.getId()));
+
+        Map<String, UserSummary> users = new HashMap<>();
+        userService.getUserProfileFromIds(page.getContent().stream().map(GroupMembership::getUserId).collect(Collectors.toList()))
+                .forEach(user -> users.put(user.getId(), UserSummary.of(user)));
+        List<GroupMember> members = page.getContent().stream()
+                .filter(membership -> users.containsKey(membership.getUserId()))
+                .map(membership -> new GroupMember(users.get(membership.getUserId()), membership.getRole(), membership.getJoinedAt()))
+                .collect(Collectors.toList());
+        return new CursorPage<>(members, page.getNextCursor());
+    }
+
+    public GroupMembership getMembership(String groupId, String userId) throws GroupNotFoundException {
+        return membershipRepository.getMembership(groupId, userId).orElseThrow(
+                () -> new GroupNotFoundException("User with id "+userId+" is not a member of group "+groupId)
+        );
     }
 
     public List<Group> getAllGroups() {
@@ -60,6 +163,17 @@ public class GroupService {
     }
 
     public List<Group> searchGroupsContainsName(String searchedName) {
+        if(searchService.isReady()){
+            List<String> groupsIds = searchService.searchGroups(searchedName, 0, searchService.getMaxResults()).getContent().stream()
+                    .map(GroupSummary::getId)
+                    .collect(Collectors.toList());
+            Map<String, Group> groups = new HashMap<>();
+            groupRepository.findAllById(groupsIds).forEach(group -> groups.put(group.getId(), group));
+            return groupsIds.stream()
+                    .map(groups::get)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        }
         try {
             return groupRepository.searchGroupsContainsName(Format.escapeMetaCharacters(searchedName));
         }catch(Exception e){
@@ -74,20 +188,41 @@ public class GroupService {
         );
         List returnData = new ArrayList();
         try{
-            S3Object object =  fileStore.download(
+            StoredFile object =  fileStore.download(
                     String.format("%s/%s", BucketName.GROUPS.getName(), groupId) ,
                     group.getCoverFileName());
-            byte[] encoded = object == null ? new byte[0] : Base64.getEncoder().encode(IOUtils.toByteArray(object.getObjectContent()));
+            byte[] encoded = object == null ? new byte[0] : Base64.getEncoder().encode(fileStore.readAllBytes(object));
             returnData.add(new String(encoded, StandardCharsets.US_ASCII));
-            returnData.add(object == null ? "" : object.getObjectMetadata().getUserMetadata().get("content-type"));
+            returnData.add(object == null ? "" : object.getInfo().getContentType());
             return returnData;
         }catch (Exception e){
             throw new IllegalStateException(e);
         }
     }
 
+    public void streamGroupImage(String groupId, Integer size, HttpServletRequest request, HttpServletResponse response) throws GroupNotFoundException, IOException {
+        Group group = groupRepository.getCoverFileNameById(groupId).orElseThrow(
+                () -> new GroupNotFoundException("Group with id "+groupId+" not found")
+        );
+        fileStreamer.write(String.format("%s/%s", BucketName.GROUPS.getName(), groupId), group.getCoverFileName(), size, request, response);
+    }
+
     public Group getGroupById(String groupId) throws GroupNotFoundException {
-        return groupRepository.findById(groupId).orElseThrow(() -> new GroupNotFoundException("group with id "+groupId+" not found"));
+        Group group = groupRepository.findById(groupId).orElseThrow(() -> new GroupNotFoundException("group with id "+groupId+" not found"));
+        return withMemberships(group);
+    }
+
+    /**
+     * Fills the admins and the last joined members, which the group documents used to embed.
+     */
+    private Group withMemberships(Group group) {
+        group.setAdmins(membershipRepository.getMembershipsByRole(group.getId(), GroupRole.ADMIN, PageRequest.of(0, MAX_ADMINS_SHOWN)).stream()
+                .map(GroupMembership::getUserId)
+                .collect(Collectors.toSet()));
+        group.setMembers(membershipRepository.getMemberIds(group.getId(), PageRequest.of(0, MAX_MEMBERS_SHOWN, LAST_JOINED_FIRST)).stream()
+                .map(GroupMembership::getUserId)
+                .collect(Collectors.toSet()));
+        return group;
     }
 
     public Group uploadCoverImage(String groupId, MultipartFile file) throws GroupNotFoundException {
@@ -96,33 +231,57 @@ public class GroupService {
         );
         String fileName =  String.format("%s-%s", file.getOriginalFilename(), UUID.randomUUID());
         group.setCoverFileName(fileName);
-        group = groupRepository.save(group);
+        group.setCoverUploadStatus(UploadStatus.PENDING);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(groupId)),
+                new Update().set("coverFileName", fileName).set("coverUploadStatus", UploadStatus.PENDING),
+                Group.class);
+        searchService.indexGroup(group);
 
         try {
-            fileStore.upload(
-                    String.format("%s/%s", BucketName.GROUPS.getName(), group.getId()),
-                    fileName,
-                    Optional.of(fileStore.getMetadata(file)),
-                    file.getInputStream());
+            uploadCover(group, fileName, file);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return group;
     }
 
+    private void uploadCover(Group group, String fileName, MultipartFile file) throws IOException {
+        String path = String.format("%s/%s", BucketName.GROUPS.getName(), group.getId());
+        CompletableFuture<Void> upload = fileStore.uploadAsync(path, fileName, file);
+        uploadTracker.track(upload, Group.class, group.getId(), "coverFileName", fileName, "coverUploadStatus");
+        imageDerivativeService.generateAfter(upload, path, fileName, file.getContentType());
+    }
+
+    /**
+     * The membership is upserted on the unique (groupId, userId) index, the counter is only
+     * incremented when it was created, so joining twice is a no-op.
+     */
     public Group join(String groupId, String userId) throws GroupNotFoundException {
-        Group group = groupRepository.findById(groupId).orElseThrow(
-                () -> new GroupNotFoundException("Group with id "+groupId+" not found")
-        );
-        group.getMembers().add(userId);
-        return groupRepository.save(group);
+        if(!groupRepository.existsById(groupId)){
+            throw new GroupNotFoundException("Group with id "+groupId+" not found");
+        }
+        UpdateResult result = mongoTemplate.upsert(
+                Query.query(Criteria.where("groupId").is(groupId).and("userId").is(userId)),
+                new Update().setOnInsert("role", GroupRole.MEMBER).setOnInsert("joinedAt", LocalDateTime.now()),
+                GroupMembership.class);
+        return updateMemberCount(groupId, result.getUpsertedId() != null ? 1 : 0);
     }
 
     public Group leave(String groupId, String userId) throws GroupNotFoundException {
-        Group group = groupRepository.findById(groupId).orElseThrow(
-                () -> new GroupNotFoundException("Group with id "+groupId+" not found")
-        );
-        group.getMembers().remove(userId);
-        return groupRepository.save(group);
+        long removed = mongoTemplate.remove(
+                Query.query(Criteria.where("groupId").is(groupId).and("userId").is(userId)),
+                GroupMembership.class).getDeletedCount();
+        return updateMemberCount(groupId, -removed);
+    }
+
+    private Group updateMemberCount(String groupId, long delta) throws GroupNotFoundException {
+        Group group = mongoTemplate.findAndModify(Query.query(Criteria.where("id").is(groupId)),
+                new Update().inc("memberCount", delta),
+                FindAndModifyOptions.options().returnNew(true),
+                Group.class);
+        if(group == null){
+            throw new GroupNotFoundException("Group with id "+groupId+" not found");
+        }
+        return withMemberships(group);
     }
 }
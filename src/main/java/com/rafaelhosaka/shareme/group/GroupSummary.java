@@ -0,0 +1,25 @@
+package com.rafaelhosaka.shareme.group;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+/**
+ * The fields needed to display a group in search results.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GroupSummary {
+    @Id
+    private String id;
+
+    private String name;
+
+    private String coverFileName;
+
+    public static GroupSummary of(Group group) {
+        return new GroupSummary(group.getId(), group.getName(), group.getCoverFileName());
+    }
+}
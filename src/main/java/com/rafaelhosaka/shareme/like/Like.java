@@ -4,14 +4,36 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.LocalDateTime;
+
+/**
+ * A like of a user on a post or a comment. The counter is kept on the liked document as likeCount.
+ */
 @Data
+@AllArgsConstructor
 @NoArgsConstructor
+@Document(collection = "like")
+@CompoundIndexes({
+        @CompoundIndex(name = "like_target_user_idx", def = "{'targetId': 1, 'userId': 1}", unique = true),
+        @CompoundIndex(name = "like_target_date_idx", def = "{'targetId': 1, 'dateCreated': -1, '_id': -1}")
+})
 public class Like {
+    @Id
+    private String id;
+
+    private String targetId;
+
     private String userId;
 
-    public Like(String userId) {
+    private LocalDateTime dateCreated;
+
+    public Like(String targetId, String userId, LocalDateTime dateCreated) {
+        this.targetId = targetId;
         this.userId = userId;
+        this.dateCreated = dateCreated;
     }
 }
@@ -0,0 +1,518 @@
+package com.rafaelhosaka.shareme.like;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Write-behind aggregation of likes. Toggles are applied to per target state in memory, appended to a local log,
+ * and flushed on an interval or once enough toggles are pending. A toggle only locks the state of its own user,
+ * the counters are striped, and the log is written by a group commit every few milliseconds, so a crash loses at
+ * most the toggles of the last commit interval. A flush writes the final state of every user
+ * that toggled to the like collection and recomputes the likeCount of the touched posts and comments, so
+ * replaying the same toggles twice is harmless. Logs left by a crash are replayed on startup.
+ * <p>
+ * The counters held in memory are authoritative for the node holding them, so the aggregator is only meant
+ * for a single instance deployment. It is disabled by default and, when enabled, needs like.aggregator.log-directory
+ * set to a persistent directory outside the temporary directory.
+ */
+@Component
+@Slf4j
+@PropertySource("classpath:application.properties")
+public class LikeAggregator {
+    private static final String LOG_NAME = "likes.log";
+    private static final String FLUSHING_PREFIX = "likes-";
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final long flushIntervalMillis;
+    private final int flushThreshold;
+    private final long idleMillis;
+    private final long logCommitIntervalMillis;
+    private final Path logDirectory;
+    private final Path temporaryDirectory;
+
+    private final ConcurrentHashMap<String, TargetLikes> targets = new ConcurrentHashMap<>();
+    //toggles share the read lock, a flush takes the write lock to rotate the log and take its snapshot
+    private final ReadWriteLock flushLock = new ReentrantReadWriteLock();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final List<Path> unflushedLogs = new ArrayList<>();
+    //lines appended by the toggles, written by the next commit
+    private final ConcurrentLinkedQueue<String> logQueue = new ConcurrentLinkedQueue<>();
+    //guards the log writer, held by the commits and the rotation
+    private final Object logLock = new Object();
+    private ScheduledExecutorService scheduler;
+    private ScheduledExecutorService logScheduler;
+    private BufferedWriter logWriter;
+
+    @Autowired
+    public LikeAggregator(MongoTemplate mongoTemplate, Environment environment) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = environment.getProperty("like.aggregator.enabled", Boolean.class, false);
+        this.flushIntervalMillis = environment.getProperty("like.aggregator.flush-interval-ms", Long.class, 1000L);
+        this.flushThreshold = environment.getProperty("like.aggregator.flush-threshold", Integer.class, 5000);
+        this.idleMillis = environment.getProperty("like.aggregator.idle-seconds", Long.class, 300L) * 1000;
+        this.logCommitIntervalMillis = environment.getProperty("like.aggregator.log-commit-interval-ms", Long.class, 10L);
+        String directory = environment.getProperty("like.aggregator.log-directory");
+        this.logDirectory = directory == null || directory.isBlank() ? null : Paths.get(directory).toAbsolutePath().normalize();
+        this.temporaryDirectory = Paths.get(environment.getProperty("java.io.tmpdir", System.getProperty("java.io.tmpdir"))).toAbsolutePath().normalize();
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if(!enabled){
+            return;
+        }
+        if(logDirectory == null){
+            throw new IllegalStateException("like.aggregator.log-directory is required when the like aggregator is enabled");
+        }
+        if(logDirectory.startsWith(temporaryDirectory)){
+            throw new IllegalStateException("like.aggregator.log-directory must not be in the temporary directory : " + logDirectory);
+        }
+        Files.createDirectories(logDirectory);
+        replay();
+        logWriter = openLog();
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "like-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        logScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "like-log");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logScheduler.scheduleWithFixedDelay(this::commitLogQuietly, logCommitIntervalMillis, logCommitIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if(!enabled){
+            return;
+        }
+        scheduler.shutdown();
+        logScheduler.shutdown();
+        flushQuietly();
+        synchronized (logLock) {
+            commitLog();
+            logWriter.close();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the new state, or null when the post or comment does not exist.
+     */
+    public LikeState toggle(String collection, String targetId, String userId) {
+        while (true) {
+            TargetLikes target = load(collection, targetId, userId);
+            if(target == null){
+                return null;
+            }
+            flushLock.readLock().lock();
+            try {
+                //the target may have been evicted by a flush since it was loaded
+                if(targets.get(key(collection, targetId)) != target){
+                    continue;
+                }
+                //atomic for this user only, toggles of other users of the same target run in parallel
+                Boolean liked = target.liked.computeIfPresent(userId, (user, previous) -> {
+                    appendLog(collection, targetId, userId, !previous);
+                    target.dirty.add(userId);
+                    target.count.add(previous ? -1 : 1);
+                    return !previous;
+                });
+                if(liked == null){
+                    //dropped by a flush since it was loaded
+                    continue;
+                }
+                target.lastAccess = System.currentTimeMillis();
+                LikeState state = new LikeState(targetId, liked, Math.max(0, target.count.sum()));
+                if(pending.incrementAndGet() >= flushThreshold && flushScheduled.compareAndSet(false, true)){
+                    scheduler.execute(this::flushQuietly);
+                }
+                return state;
+            }finally {
+                flushLock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns the counter held in memory, or null when the target is not held.
+     */
+    public Long peekCount(String collection, String targetId) {
+        TargetLikes target = targets.get(key(collection, targetId));
+        return target == null ? null : Math.max(0, target.count.sum());
+    }
+
+    /**
+     * Returns whether the user liked the target as known in memory, or null when unknown.
+     */
+    public Boolean peekLiked(String collection, String targetId, String userId) {
+        TargetLikes target = targets.get(key(collection, targetId));
+        return target == null ? null : target.liked.get(userId);
+    }
+
+    public LikeState getState(String collection, String targetId, String userId) {
+        TargetLikes target = load(collection, targetId, userId);
+        if(target == null){
+            return null;
+        }
+        Boolean liked = target.liked.get(userId);
+        if(liked == null){
+            //dropped by a flush since it was loaded, and written
+            liked = mongoTemplate.exists(likeOf(targetId, userId), Like.class);
+        }
+        return new LikeState(targetId, liked, Math.max(0, target.count.sum()));
+    }
+
+    /**
+     * Drops the pending toggles of deleted posts or comments, so a flush does not write their likes back.
+     */
+    public void forget(Collection<String> targetsIds) {
+        if(!enabled || targetsIds.isEmpty()){
+            return;
+        }
+        Set<String> ids = new HashSet<>(targetsIds);
+        flushLock.writeLock().lock();
+        try {
+            targets.values().removeIf(target -> ids.contains(target.id));
+        }finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        flushScheduled.set(false);
+        Map<String, Map<String, Boolean>> writes = new HashMap<>();
+        Path rotated = null;
+        flushLock.writeLock().lock();
+        try {
+            long now = System.currentTimeMillis();
+            if(pending.getAndSet(0) == 0 && unflushedLogs.isEmpty()){
+                for (Iterator<TargetLikes> it = targets.values().iterator(); it.hasNext(); ) {
+                    TargetLikes target = it.next();
+                    if(now - target.lastAccess > idleMillis){
+                        it.remove();
+                    }else{
+                        target.liked.clear();
+                    }
+                }
+                return;
+            }
+            synchronized (logLock) {
+                commitLog();
+                logWriter.close();
+                rotated = logDirectory.resolve(FLUSHING_PREFIX + System.nanoTime() + ".log");
+                Files.move(logDirectory.resolve(LOG_NAME), rotated, StandardCopyOption.ATOMIC_MOVE);
+                unflushedLogs.add(rotated);
+                logWriter = openLog();
+            }
+
+            //the toggles are blocked, the users left clean were written by the previous flushes and are
+            //dropped to bound the memory of popular targets, they are read again from the like collection
+            for (Iterator<TargetLikes> it = targets.values().iterator(); it.hasNext(); ) {
+                TargetLikes target = it.next();
+                if(!target.dirty.isEmpty()){
+                    Map<String, Boolean> states = new HashMap<>();
+                    target.dirty.forEach(userId -> states.put(userId, target.liked.get(userId)));
+                    target.dirty.clear();
+                    target.liked.keySet().retainAll(states.keySet());
+                    writes.put(key(target.collection, target.id), states);
+                }else if(now - target.lastAccess > idleMillis){
+                    it.remove();
+                }else{
+                    target.liked.clear();
+                }
+            }
+        }finally {
+            flushLock.writeLock().unlock();
+        }
+
+        if(!writes.isEmpty()){
+            try {
+                write(writes);
+            }catch (RuntimeException e){
+                //the logs are kept, the toggles are written again by the next flush or on the next startup
+                log.error("Exception : like flush failed, {} logs pending : {}", unflushedLogs.size(), e.getMessage());
+                replayInto(rotated);
+                return;
+            }
+        }
+        for (Path logFile : unflushedLogs) {
+            Files.deleteIfExists(logFile);
+        }
+        unflushedLogs.clear();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        }catch (Exception e){
+            log.error("Exception : like flush failed : {}", e.getMessage());
+        }
+    }
+
+    private TargetLikes load(String collection, String targetId, String userId) {
+        if(!ObjectId.isValid(targetId)){
+            return null;
+        }
+        ObjectId id = new ObjectId(targetId);
+        TargetLikes target = targets.get(key(collection, targetId));
+        if(target == null){
+            //the counter and the like of the user in one round trip
+            Document document = mongoTemplate.getCollection(collection).aggregate(List.of(
+                    new Document("$match", new Document("_id", id)),
+                    new Document("$project", new Document("likeCount", 1)),
+                    new Document("$lookup", new Document("from", mongoTemplate.getCollectionName(Like.class))
+                            .append("pipeline", List.of(
+                                    new Document("$match", new Document("targetId", targetId).append("userId", userId)),
+                                    new Document("$limit", 1),
+                                    new Document("$project", new Document("_id", 1))))
+                            .append("as", "liked"))
+            )).first();
+            if(document == null){
+                return null;
+            }
+            Object count = document.get("likeCount");
+            boolean liked = !document.getList("liked", Document.class, List.of()).isEmpty();
+            target = targets.computeIfAbsent(key(collection, targetId),
+                    k -> new TargetLikes(collection, targetId, count instanceof Number ? ((Number) count).longValue() : 0));
+            target.liked.putIfAbsent(userId, liked);
+            return target;
+        }
+        if(!target.liked.containsKey(userId)){
+            target.liked.putIfAbsent(userId, mongoTemplate.exists(likeOf(targetId, userId), Like.class));
+        }
+        return target;
+    }
+
+    private void appendLog(String collection, String targetId, String userId, boolean liked) {
+        logQueue.add(collection + "\t" + targetId + "\t" + userId + "\t" + (liked ? 1 : 0) + "\n");
+    }
+
+    /**
+     * Writes the queued lines with a single flush.
+     */
+    private void commitLog() throws IOException {
+        synchronized (logLock) {
+            String line;
+            boolean written = false;
+            while ((line = logQueue.poll()) != null) {
+                logWriter.write(line);
+                written = true;
+            }
+            if(written){
+                logWriter.flush();
+            }
+        }
+    }
+
+    private void commitLogQuietly() {
+        try {
+            commitLog();
+        }catch (Exception e){
+            log.error("Exception : could not write the like log : {}", e.getMessage());
+        }
+    }
+
+    private BufferedWriter openLog() throws IOException {
+        return Files.newBufferedWriter(logDirectory.resolve(LOG_NAME), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Applies the logs left by a previous run, oldest first, then removes them.
+     */
+    private void replay() throws IOException {
+        List<Path> logs;
+        try (Stream<Path> files = Files.list(logDirectory)) {
+            logs = files.filter(file -> file.getFileName().toString().endsWith(".log"))
+                    .sorted(Comparator.comparing((Path file) -> file.getFileName().toString().equals(LOG_NAME))
+                            .thenComparing(file -> file.getFileName().toString()))
+                    .collect(Collectors.toList());
+        }
+        if(logs.isEmpty()){
+            return;
+        }
+        Map<String, Map<String, Boolean>> states = new LinkedHashMap<>();
+        for (Path logFile : logs) {
+            readLog(logFile, states);
+        }
+        try {
+            write(states);
+            for (Path logFile : logs) {
+                Files.delete(logFile);
+            }
+            log.info("Replayed like logs of {} posts and comments", states.size());
+        }catch (RuntimeException e){
+            //keep the current log apart so new toggles do not mix with the ones still to replay
+            log.error("Exception : could not replay like logs, retrying on next startup : {}", e.getMessage());
+            Path current = logDirectory.resolve(LOG_NAME);
+            if(Files.exists(current)){
+                Files.move(current, logDirectory.resolve(FLUSHING_PREFIX + System.nanoTime() + ".log"));
+            }
+        }
+    }
+
+    /**
+     * Marks the toggles of a log whose flush failed as dirty again, unless they were toggled since.
+     */
+    private void replayInto(Path logFile) {
+        Map<String, Map<String, Boolean>> states = new HashMap<>();
+        try {
+            readLog(logFile, states);
+        }catch (IOException e){
+            log.error("Exception : could not read like log {} : {}", logFile, e.getMessage());
+            return;
+        }
+        flushLock.readLock().lock();
+        try {
+            states.forEach((key, users) -> {
+                TargetLikes target = targets.get(key);
+                if(target != null){
+                    users.forEach((userId, liked) -> {
+                        target.liked.putIfAbsent(userId, liked);
+                        target.dirty.add(userId);
+                    });
+                    pending.addAndGet(users.size());
+                }
+            });
+        }finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    private void readLog(Path logFile, Map<String, Map<String, Boolean>> states) throws IOException {
+        for (String line : Files.readAllLines(logFile, StandardCharsets.UTF_8)) {
+            String[] parts = line.split("\t", -1);
+            if(parts.length != 4 || !ObjectId.isValid(parts[1]) || !("1".equals(parts[3]) || "0".equals(parts[3]))){
+                //partially written last line
+                continue;
+            }
+            states.computeIfAbsent(key(parts[0], parts[1]), k -> new LinkedHashMap<>()).put(parts[2], "1".equals(parts[3]));
+        }
+    }
+
+    /**
+     * Writes the final state of the toggled likes, then sets the counters from the like collection
+     * rather than incrementing them, so writing the same toggles twice is harmless.
+     */
+    private void write(Map<String, Map<String, Boolean>> states) {
+        if(states.isEmpty()){
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, List<String>> targetsByCollection = new HashMap<>();
+        states.keySet().forEach(key -> {
+            String[] parts = key.split("\t");
+            targetsByCollection.computeIfAbsent(parts[0], c -> new ArrayList<>()).add(parts[1]);
+        });
+        //a target deleted while its toggles were flushing keeps no likes
+        targetsByCollection.forEach((collection, targetsIds) -> {
+            Query query = Query.query(Criteria.where("_id").in(targetsIds.stream().map(ObjectId::new).collect(Collectors.toList())));
+            query.fields().include("_id");
+            Set<String> existing = mongoTemplate.find(query, Document.class, collection).stream()
+                    .map(document -> document.getObjectId("_id").toHexString())
+                    .collect(Collectors.toSet());
+            targetsIds.retainAll(existing);
+        });
+        BulkOperations likes = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Like.class);
+        boolean queued = false;
+        for (Map.Entry<String, Map<String, Boolean>> entry : states.entrySet()) {
+            String[] parts = entry.getKey().split("\t");
+            if(!targetsByCollection.get(parts[0]).contains(parts[1])){
+                continue;
+            }
+            queued = true;
+            entry.getValue().forEach((userId, liked) -> {
+                if(liked){
+                    likes.upsert(likeOf(parts[1], userId), new Update().setOnInsert("dateCreated", now));
+                }else{
+                    likes.remove(likeOf(parts[1], userId));
+                }
+            });
+        }
+        if(queued){
+            likes.execute();
+        }
+
+        targetsByCollection.forEach((collection, targetsIds) -> {
+            if(targetsIds.isEmpty()){
+                return;
+            }
+            Map<String, Long> counts = new HashMap<>();
+            Aggregation aggregation = Aggregation.newAggregation(
+                    Aggregation.match(Criteria.where("targetId").in(targetsIds)),
+                    Aggregation.group("targetId").count().as("count"));
+            mongoTemplate.aggregate(aggregation, Like.class, Document.class)
+                    .forEach(count -> counts.put(count.getString("_id"), ((Number) count.get("count")).longValue()));
+            BulkOperations counters = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+            targetsIds.forEach(targetId -> counters.updateOne(
+                    Query.query(Criteria.where("_id").is(new ObjectId(targetId))),
+                    Update.update("likeCount", counts.getOrDefault(targetId, 0L))));
+            counters.execute();
+        });
+    }
+
+    private static Query likeOf(String targetId, String userId) {
+        return Query.query(Criteria.where("targetId").is(targetId).and("userId").is(userId));
+    }
+
+    private static String key(String collection, String targetId) {
+        return collection + "\t" + targetId;
+    }
+
+    private static class TargetLikes {
+        private final String collection;
+        private final String id;
+        //state of the users that toggled since the last flush or were read since, by user
+        private final ConcurrentHashMap<String, Boolean> liked = new ConcurrentHashMap<>();
+        private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+        private final LongAdder count = new LongAdder();
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private TargetLikes(String collection, String id, long count) {
+            this.collection = collection;
+            this.id = id;
+            this.count.add(count);
+        }
+    }
+}
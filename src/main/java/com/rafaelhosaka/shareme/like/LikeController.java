@@ -1,19 +1,18 @@
 package com.rafaelhosaka.shareme.like;
 
-import com.rafaelhosaka.shareme.comment.Comment;
 import com.rafaelhosaka.shareme.exception.CommentNotFoundException;
 import com.rafaelhosaka.shareme.exception.PostNotFoundException;
-import com.rafaelhosaka.shareme.post.BasePost;
-import com.rafaelhosaka.shareme.post.Post;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
+import com.rafaelhosaka.shareme.user.UserSummary;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.PutMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RequestPart;
-import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.*;
 
 @RestController
 @RequestMapping("api/like")
+@Slf4j
 public class LikeController {
 
     private LikeService likeService;
@@ -24,7 +23,7 @@ public class LikeController {
     }
 
     @PutMapping("/post")
-    public ResponseEntity<BasePost> likeUnlikePost(@RequestPart("userId") String userId, @RequestPart("postId") String postId){
+    public ResponseEntity<LikeState> likeUnlikePost(@RequestPart("userId") String userId, @RequestPart("postId") String postId){
         try {
             return ResponseEntity.ok().body(likeService.likeUnlikePost(userId, postId));
         }catch(PostNotFoundException e){
@@ -33,11 +32,41 @@ public class LikeController {
     }
 
     @PutMapping("/comment")
-    public ResponseEntity<Comment> likeUnlikeComment(@RequestPart("userId") String userId, @RequestPart("commentId") String postId){
+    public ResponseEntity<LikeState> likeUnlikeComment(@RequestPart("userId") String userId, @RequestPart("commentId") String postId){
         try {
             return ResponseEntity.ok().body(likeService.likeUnlikeComment(userId, postId));
         }catch(CommentNotFoundException e){
             return ResponseEntity.notFound().build();
         }
     }
+
+    @GetMapping("/post/{id}")
+    public ResponseEntity<LikeState> getPostLikeState(@PathVariable("id") String postId, @RequestParam("userId") String userId){
+        try {
+            return ResponseEntity.ok().body(likeService.getPostLikeState(userId, postId));
+        }catch(PostNotFoundException e){
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping("/comment/{id}")
+    public ResponseEntity<LikeState> getCommentLikeState(@PathVariable("id") String commentId, @RequestParam("userId") String userId){
+        try {
+            return ResponseEntity.ok().body(likeService.getCommentLikeState(userId, commentId));
+        }catch(CommentNotFoundException e){
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping({"/post/{id}/users", "/comment/{id}/users"})
+    public ResponseEntity<CursorPage<UserSummary>> getLikingUsers(@PathVariable("id") String targetId,
+                                                                 @RequestParam(value = "cursor", required = false) String cursor,
+                                                                 @RequestParam(value = "size", defaultValue = "20") int size){
+        try {
+            return ResponseEntity.ok(likeService.getLikingUsers(targetId, cursor, size));
+        }catch(IllegalArgumentException e){
+            log.error("Exception : {}",e.getMessage());
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
 }
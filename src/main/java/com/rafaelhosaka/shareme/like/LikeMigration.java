@@ -0,0 +1,105 @@
+package com.rafaelhosaka.shareme.like;
+
+import com.rafaelhosaka.shareme.comment.Comment;
+import com.rafaelhosaka.shareme.config.Migrations;
+import com.rafaelhosaka.shareme.post.BasePost;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Moves the likes embedded in posts and comments to the like collection. Each document is unset only after
+ * its likes are written and its counter is recomputed, so an interrupted migration resumes on the next startup.
+ * A completed migration is recorded and not scanned for again.
+ * Documents written before the counter existed get a likeCount of zero, once, since every document written
+ * since then holds a counter.
+ */
+@Component
+@Slf4j
+public class LikeMigration {
+    private static final String LIKES_MIGRATION = "likes-";
+    private static final String LIKE_COUNT_MIGRATION = "like-count-";
+
+    private final MongoTemplate mongoTemplate;
+    private final Migrations migrations;
+
+    @Autowired
+    public LikeMigration(MongoTemplate mongoTemplate, Migrations migrations) {
+        this.mongoTemplate = mongoTemplate;
+        this.migrations = migrations;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        CompletableFuture.runAsync(this::migrate);
+    }
+
+    public void migrate() {
+        for (Class<?> type : List.of(BasePost.class, Comment.class)) {
+            String collection = mongoTemplate.getCollectionName(type);
+            try {
+                if(!migrations.isDone(LIKES_MIGRATION + collection)){
+                    int migrated = 0;
+                    BasicQuery query = new BasicQuery("{ 'likes' : { '$exists' : true } }", "{ 'likes' : 1, 'dateCreated' : 1 }");
+                    try (CloseableIterator<Document> documents = mongoTemplate.stream(query, Document.class, collection)) {
+                        while (documents.hasNext()) {
+                            migrate(collection, documents.next());
+                            migrated++;
+                        }
+                    }
+                    migrations.markDone(LIKES_MIGRATION + collection);
+                    if(migrated > 0){
+                        log.info("Moved the likes of {} documents of {} to the like collection", migrated, collection);
+                    }
+                }
+                if(!migrations.isDone(LIKE_COUNT_MIGRATION + collection)){
+                    mongoTemplate.updateMulti(Query.query(Criteria.where("likeCount").exists(false)),
+                            Update.update("likeCount", 0L), collection);
+                    migrations.markDone(LIKE_COUNT_MIGRATION + collection);
+                }
+            }catch (Exception e){
+                log.error("Exception : could not migrate the likes of {} : {}", collection, e.getMessage());
+            }
+        }
+    }
+
+    private void migrate(String collection, Document document) {
+        String targetId = document.getObjectId("_id").toHexString();
+        List<?> likes = document.get("likes", List.class);
+        if(likes != null && !likes.isEmpty()){
+            //the time of the embedded likes is unknown, the date of the liked document is the closest bound
+            Object date = document.get("dateCreated");
+            Object dateCreated = date != null ? date : LocalDateTime.now();
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Like.class);
+            int upserts = 0;
+            for (Object like : likes) {
+                if(like instanceof Document && ((Document) like).getString("userId") != null){
+                    upserts++;
+                    bulk.upsert(
+                            Query.query(Criteria.where("targetId").is(targetId).and("userId").is(((Document) like).getString("userId"))),
+                            new Update().setOnInsert("dateCreated", dateCreated));
+                }
+            }
+            if(upserts > 0){
+                bulk.execute();
+            }
+        }
+        long count = mongoTemplate.count(Query.query(Criteria.where("targetId").is(targetId)), Like.class);
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(document.getObjectId("_id"))),
+                new Update().set("likeCount", count).unset("likes"), collection);
+    }
+}
@@ -0,0 +1,28 @@
+package com.rafaelhosaka.shareme.like;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface LikeRepository extends MongoRepository<Like, String> {
+
+    @Query("{ 'targetId' : ?0 }")
+    List<Like> getLikesByTargetId(String targetId, Pageable pageable);
+
+    @Query("{ 'targetId' : ?0, " +
+            "'$or' : [ { 'dateCreated' : { '$lt' : ?1 } }, { 'dateCreated' : ?1, '_id' : { '$lt' : ?2 } } ] }")
+    List<Like> getLikesByTargetIdBefore(String targetId, LocalDateTime date, ObjectId id, Pageable pageable);
+
+    @Query(value = "{ 'userId' : ?0, 'targetId' : { '$in' : ?1 } }", fields = "{ 'targetId' : 1 }")
+    List<Like> getLikesOfUser(String userId, List<String> targetsIds);
+
+    @Query(value = "{ 'targetId' : ?0, 'userId' : ?1 }", exists = true)
+    boolean existsLike(String targetId, String userId);
+
+    @Query(value = "{ 'targetId' : { '$in' : ?0 } }", delete = true)
+    void deleteByTargetIds(List<String> targetsIds);
+}
@@ -1,70 +1,220 @@
 package com.rafaelhosaka.shareme.like;
 
 import com.rafaelhosaka.shareme.comment.Comment;
-import com.rafaelhosaka.shareme.comment.CommentRepository;
 import com.rafaelhosaka.shareme.exception.CommentNotFoundException;
 import com.rafaelhosaka.shareme.exception.PostNotFoundException;
+import com.rafaelhosaka.shareme.pagination.Cursor;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
 import com.rafaelhosaka.shareme.post.BasePost;
-import com.rafaelhosaka.shareme.post.Post;
-import com.rafaelhosaka.shareme.post.PostRepository;
+import com.rafaelhosaka.shareme.user.UserProfileService;
+import com.rafaelhosaka.shareme.user.UserSummary;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
+/**
+ * Likes are stored in their own collection, one document per (targetId, userId), and counted in the likeCount
+ * of the liked post or comment. When the {@link LikeAggregator} is enabled the toggles go through it and are
+ * written behind.
+ */
 @Service
 public class LikeService {
-    private PostRepository postRepository;
-    private CommentRepository commentRepository;
+    private static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "dateCreated", "id");
+
+    private final MongoTemplate mongoTemplate;
+    private final LikeRepository likeRepository;
+    private final LikeAggregator likeAggregator;
+    private final UserProfileService userService;
 
     @Autowired
-    public LikeService(PostRepository postRepository, CommentRepository commentRepository) {
-        this.postRepository = postRepository;
-        this.commentRepository = commentRepository;
-    }
-
-    public BasePost likeUnlikePost(String userId, String postId) throws PostNotFoundException {
-        BasePost oldPost = postRepository.findById(postId).orElseThrow(
-                () ->  new PostNotFoundException("Post with ID "+postId+" not found")
-        );
-
-        boolean isNewLike = true;
-        Set<Like> likes = new HashSet<>();
-        for (Like like : oldPost.getLikes()) {
-            if (like.getUserId().equals(userId)) {
-                isNewLike = false;
-            } else {
-                likes.add(like);
-            }
+    public LikeService(MongoTemplate mongoTemplate,
+                       LikeRepository likeRepository,
+                       LikeAggregator likeAggregator,
+                       UserProfileService userService) {
+        this.mongoTemplate = mongoTemplate;
+        this.likeRepository = likeRepository;
+        this.likeAggregator = likeAggregator;
+        this.userService = userService;
+    }
+
+    public LikeState likeUnlikePost(String userId, String postId) throws PostNotFoundException {
+        LikeState state = toggle(postCollection(), userId, postId);
+        if(state == null){
+            throw new PostNotFoundException("Post with ID "+postId+" not found");
+        }
+        return state;
+    }
+
+    public LikeState likeUnlikeComment(String userId, String commentId) throws CommentNotFoundException {
+        LikeState state = toggle(commentCollection(), userId, commentId);
+        if(state == null){
+            throw new CommentNotFoundException("Comment with ID "+commentId+" not found");
+        }
+        return state;
+    }
+
+    public LikeState getPostLikeState(String userId, String postId) throws PostNotFoundException {
+        LikeState state = getState(postCollection(), userId, postId);
+        if(state == null){
+            throw new PostNotFoundException("Post with ID "+postId+" not found");
+        }
+        return state;
+    }
+
+    public LikeState getCommentLikeState(String userId, String commentId) throws CommentNotFoundException {
+        LikeState state = getState(commentCollection(), userId, commentId);
+        if(state == null){
+            throw new CommentNotFoundException("Comment with ID "+commentId+" not found");
         }
-        if (isNewLike){
-            likes.add(new Like(userId));
+        return state;
+    }
+
+    public CursorPage<UserSummary> getLikingUsers(String targetId, String cursor, int size) throws IllegalArgumentException {
+        int pageSize = CursorPage.clampSize(size);
+        Pageable pageable = PageRequest.of(0, pageSize + 1, NEWEST_FIRST);
+        List<Like> likes;
+        if(cursor == null || cursor.isEmpty()){
+            likes = likeRepository.getLikesByTargetId(targetId, pageable);
+        }else{
+            Cursor after = Cursor.decode(cursor);
+            likes = likeRepository.getLikesByTargetIdBefore(targetId, after.getDate(), ObjectIds.from(after.getId()), pageable);
         }
-        oldPost.setLikes(likes);
-        return postRepository.save(oldPost);
+        CursorPage<Like> page = CursorPage.of(likes, pageSize, like -> new Cursor(like.getDateCreated(), like.getId()));
+        List<UserSummary> users = userService.getUserProfileFromIds(
+                        page.getContent().stream().map(Like::getUserId).collect(Collectors.toList()))
+                .stream()
+                .map(UserSummary::of)
+                .collect(Collectors.toList());
+        return new CursorPage<>(users, page.getNextCursor());
     }
 
-    public Comment likeUnlikeComment(String userId, String commentId) throws CommentNotFoundException {
-        Comment oldComment = commentRepository.findById(commentId).orElseThrow(
-                () ->  new CommentNotFoundException("Comment with ID "+commentId+" not found")
-        );
+    public <T extends BasePost> List<T> withPostsLikeState(String userId, List<T> posts) {
+        applyLikeState(postCollection(), userId, posts);
+        return posts;
+    }
 
-        boolean isNewLike = true;
-        Set<Like> likes = new HashSet<>();
-        for (Like like : oldComment.getLikes()) {
-            if (like.getUserId().equals(userId)) {
-                isNewLike = false;
-            } else {
-                likes.add(like);
+    public <T extends Comment> List<T> withCommentsLikeState(String userId, List<T> comments) {
+        applyLikeState(commentCollection(), userId, comments);
+        return comments;
+    }
+
+    public void deleteLikes(List<String> targetsIds) {
+        if(likeAggregator.isEnabled()){
+            likeAggregator.forget(targetsIds);
+        }
+        likeRepository.deleteByTargetIds(targetsIds);
+    }
+
+    /**
+     * Sets likedByMe with one query for the whole page, preferring the state held by the aggregator.
+     */
+    private void applyLikeState(String collection, String userId, Collection<? extends Likeable> targets) {
+        if(userId == null || targets.isEmpty()){
+            return;
+        }
+        Set<String> liked = likeRepository.getLikesOfUser(userId,
+                        targets.stream().map(Likeable::getId).collect(Collectors.toList()))
+                .stream()
+                .map(Like::getTargetId)
+                .collect(Collectors.toSet());
+        for (Likeable target : targets) {
+            Boolean held = likeAggregator.isEnabled() ? likeAggregator.peekLiked(collection, target.getId(), userId) : null;
+            target.setLikedByMe(held != null ? held : liked.contains(target.getId()));
+            Long count = likeAggregator.isEnabled() ? likeAggregator.peekCount(collection, target.getId()) : null;
+            if(count != null){
+                target.setLikeCount(count);
             }
         }
-        if (isNewLike){
-            likes.add(new Like(userId));
+    }
+
+    private LikeState getState(String collection, String userId, String targetId) {
+        if(likeAggregator.isEnabled()){
+            return likeAggregator.getState(collection, targetId, userId);
+        }
+        if(!ObjectId.isValid(targetId)){
+            return null;
+        }
+        Query query = Query.query(Criteria.where("_id").is(new ObjectId(targetId)));
+        query.fields().include("likeCount");
+        Document document = mongoTemplate.findOne(query, Document.class, collection);
+        if(document == null){
+            return null;
+        }
+        return new LikeState(targetId, likeRepository.existsLike(targetId, userId), count(document));
+    }
+
+    /**
+     * Removing the like decides the direction: when there was none, the like is inserted first, the unique
+     * (targetId, userId) index turning a concurrent duplicate like into a no-op, and the counter is incremented
+     * only once the like is stored. The like is removed again when the target does not exist or the increment fails.
+     */
+    private LikeState toggle(String collection, String userId, String targetId) {
+        if(likeAggregator.isEnabled()){
+            return likeAggregator.toggle(collection, targetId, userId);
+        }
+        if(!ObjectId.isValid(targetId)){
+            return null;
+        }
+        Query like = Query.query(Criteria.where("targetId").is(targetId).and("userId").is(userId));
+        if(mongoTemplate.remove(like, Like.class).getDeletedCount() > 0){
+            Document unliked = incrementCount(collection, targetId, -1);
+            return new LikeState(targetId, false, unliked == null ? 0 : count(unliked));
+        }
+
+        try {
+            likeRepository.insert(new Like(targetId, userId, LocalDateTime.now()));
+        }catch (DuplicateKeyException e){
+            //liked concurrently, already counted
+            return getState(collection, userId, targetId);
         }
-        oldComment.setLikes(likes);
-        return commentRepository.save(oldComment);
+        Document liked;
+        try {
+            liked = incrementCount(collection, targetId, 1);
+        }catch (RuntimeException e){
+            mongoTemplate.remove(like, Like.class);
+            throw e;
+        }
+        if(liked == null){
+            mongoTemplate.remove(like, Like.class);
+            return null;
+        }
+        return new LikeState(targetId, true, count(liked));
+    }
+
+    private Document incrementCount(String collection, String targetId, int delta) {
+        Query query = Query.query(Criteria.where("_id").is(new ObjectId(targetId)));
+        query.fields().include("likeCount");
+        return mongoTemplate.findAndModify(query, new Update().inc("likeCount", delta),
+                FindAndModifyOptions.options().returnNew(true), Document.class, collection);
+    }
+
+    private long count(Document document) {
+        Object count = document.get("likeCount");
+        return count instanceof Number ? Math.max(0, ((Number) count).longValue()) : 0;
+    }
+
+    private String postCollection() {
+        return mongoTemplate.getCollectionName(BasePost.class);
+    }
+
+    private String commentCollection() {
+        return mongoTemplate.getCollectionName(Comment.class);
     }
 }
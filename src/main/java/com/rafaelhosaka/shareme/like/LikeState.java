@@ -0,0 +1,14 @@
+package com.rafaelhosaka.shareme.like;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class LikeState {
+    private String targetId;
+    private boolean liked;
+    private long likeCount;
+}
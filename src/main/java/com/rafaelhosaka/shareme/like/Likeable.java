@@ -0,0 +1,14 @@
+package com.rafaelhosaka.shareme.like;
+
+/**
+ * A post or a comment as returned to a user, with its like counter and whether that user liked it.
+ */
+public interface Likeable {
+    String getId();
+
+    long getLikeCount();
+
+    void setLikeCount(long likeCount);
+
+    void setLikedByMe(boolean likedByMe);
+}
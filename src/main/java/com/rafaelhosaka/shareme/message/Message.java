@@ -1,11 +1,13 @@
 package com.rafaelhosaka.shareme.message;
 
 
-import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserSummary;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
@@ -14,13 +16,29 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @NoArgsConstructor
 @Document
+@CompoundIndexes({
+        @CompoundIndex(name = "message_sender_receiver_idx", def = "{'sender._id': 1, 'receiver._id': 1}"),
+        @CompoundIndex(name = "message_receiver_idx", def = "{'receiver._id': 1}"),
+        @CompoundIndex(name = "message_conversation_date_idx", def = "{'conversationId': 1, 'dateSent': -1, '_id': -1}"),
+        @CompoundIndex(name = "message_sender_client_idx", def = "{'sender._id': 1, 'clientId': 1}", unique = true,
+                partialFilter = "{'clientId': {'$exists': true}}")
+})
 public class Message implements Comparable<Message> {
     @Id
     private String id;
-    private UserProfile sender;
-    private UserProfile receiver;
+    private String conversationId;
+    private UserSummary sender;
+    private UserSummary receiver;
     private String content;
     private LocalDateTime dateSent;
+    private String clientId;
+
+    /**
+     * The same id for both directions of a conversation between two users.
+     */
+    public static String conversationIdOf(String userId, String friendId) {
+        return userId.compareTo(friendId) <= 0 ? userId + "_" + friendId : friendId + "_" + userId;
+    }
 
     @Override
     public int compareTo(Message o) {
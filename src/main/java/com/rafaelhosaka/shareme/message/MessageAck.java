@@ -0,0 +1,30 @@
+package com.rafaelhosaka.shareme.message;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Answer to the sender of a message sent over STOMP, carrying the id given by the server.
+ * A duplicate carries the id of the message first sent with the same client id.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MessageAck {
+    private String clientId;
+
+    private String id;
+
+    private MessageAckStatus status;
+
+    private LocalDateTime dateSent;
+
+    private String error;
+
+    public static MessageAck rejected(String clientId, String error) {
+        return new MessageAck(clientId, null, MessageAckStatus.REJECTED, null, error);
+    }
+}
@@ -0,0 +1,7 @@
+package com.rafaelhosaka.shareme.message;
+
+public enum MessageAckStatus {
+    SENT,
+    DUPLICATE,
+    REJECTED
+}
@@ -1,6 +1,7 @@
 package com.rafaelhosaka.shareme.message;
 
 import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -24,6 +25,19 @@ public class MessageController {
             return ResponseEntity.ok().body(messageService.getMessages(senderId, receiverId));
     }
 
+    @GetMapping("/conversation/{userId}/{friendId}")
+    public ResponseEntity<CursorPage<Message>> getConversation(@PathVariable("userId") String userId,
+                                                               @PathVariable("friendId") String friendId,
+                                                               @RequestParam(value = "before", required = false) String before,
+                                                               @RequestParam(value = "after", required = false) String after,
+                                                               @RequestParam(value = "size", defaultValue = "20") int size){
+        try {
+            return ResponseEntity.ok().body(messageService.getConversation(userId, friendId, before, after, size));
+        } catch (IllegalArgumentException e) {
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @PostMapping("/send")
     public ResponseEntity<Message> sendMessage(@RequestPart("senderId") String senderId, @RequestPart("receiverId")String receiverId, @RequestPart("content")String content){
         try {
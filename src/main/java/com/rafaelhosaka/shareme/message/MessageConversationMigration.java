@@ -0,0 +1,93 @@
+package com.rafaelhosaka.shareme.message;
+
+import com.rafaelhosaka.shareme.config.Migrations;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sets the conversation id of the messages sent before it existed, in batches, once.
+ */
+@Component
+@Slf4j
+public class MessageConversationMigration {
+    private static final int BATCH_SIZE = 1000;
+    private static final String MIGRATION = "message-conversations";
+
+    private final MongoTemplate mongoTemplate;
+    private final Migrations migrations;
+
+    @Autowired
+    public MessageConversationMigration(MongoTemplate mongoTemplate, Migrations migrations) {
+        this.mongoTemplate = mongoTemplate;
+        this.migrations = migrations;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        CompletableFuture.runAsync(this::migrate);
+    }
+
+    public void migrate() {
+        try {
+            if(migrations.isDone(MIGRATION)){
+                return;
+            }
+            int migrated = 0;
+            BasicQuery query = new BasicQuery("{ 'conversationId' : { '$exists' : false } }", "{ 'sender._id' : 1, 'receiver._id' : 1 }");
+            try (CloseableIterator<Document> messages = mongoTemplate.stream(query, Document.class, mongoTemplate.getCollectionName(Message.class))) {
+                BulkOperations bulk = null;
+                int pending = 0;
+                while (messages.hasNext()) {
+                    Document message = messages.next();
+                    String senderId = idOf(message.get("sender", Document.class));
+                    String receiverId = idOf(message.get("receiver", Document.class));
+                    if(senderId == null || receiverId == null){
+                        continue;
+                    }
+                    if(bulk == null){
+                        bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Message.class);
+                    }
+                    bulk.updateOne(Query.query(Criteria.where("_id").is(message.get("_id"))),
+                            new Update().set("conversationId", Message.conversationIdOf(senderId, receiverId)));
+                    pending++;
+                    if(pending == BATCH_SIZE){
+                        bulk.execute();
+                        migrated += pending;
+                        bulk = null;
+                        pending = 0;
+                    }
+                }
+                if(pending > 0){
+                    bulk.execute();
+                    migrated += pending;
+                }
+            }
+            if(migrated > 0){
+                log.info("Set the conversation of {} messages", migrated);
+            }
+            migrations.markDone(MIGRATION);
+        }catch (Exception e){
+            log.error("Exception : could not migrate messages : {}", e.getMessage());
+        }
+    }
+
+    private String idOf(Document user) {
+        if(user == null || user.get("_id") == null){
+            return null;
+        }
+        return user.get("_id").toString();
+    }
+}
@@ -1,12 +1,20 @@
 package com.rafaelhosaka.shareme.message;
 
-import com.rafaelhosaka.shareme.post.BasePost;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface MessageRepository extends MongoRepository<Message,String> {
-    @Query("{ 'sender.id' : ?0 , 'receiver.id' : ?1}")
-    List<Message> getMessages(String senderId, String receiverId);
+    @Query("{ 'conversationId' : ?0 }")
+    List<Message> getMessages(String conversationId, Pageable pageable);
+
+    @Query("{ 'conversationId' : ?0, '$or' : [ { 'dateSent' : { '$lt' : ?1 } }, { 'dateSent' : ?1, '_id' : { '$lt' : ?2 } } ] }")
+    List<Message> getMessagesBefore(String conversationId, LocalDateTime date, ObjectId id, Pageable pageable);
+
+    @Query("{ 'conversationId' : ?0, '$or' : [ { 'dateSent' : { '$gt' : ?1 } }, { 'dateSent' : ?1, '_id' : { '$gt' : ?2 } } ] }")
+    List<Message> getMessagesAfter(String conversationId, LocalDateTime date, ObjectId id, Pageable pageable);
 }
@@ -1,70 +1,188 @@
 package com.rafaelhosaka.shareme.message;
 
+import com.mongodb.bulk.BulkWriteResult;
 import com.rafaelhosaka.shareme.chat.Chat;
-import com.rafaelhosaka.shareme.chat.ChatRepository;
+import com.rafaelhosaka.shareme.chat.ChatMessage;
 import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
+import com.rafaelhosaka.shareme.pagination.Cursor;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
+import com.rafaelhosaka.shareme.unread.UnreadCounterService;
 import com.rafaelhosaka.shareme.user.UserProfile;
 import com.rafaelhosaka.shareme.user.UserProfileService;
+import com.rafaelhosaka.shareme.user.UserSummary;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 
 @Service
+@PropertySource("classpath:application.properties")
 public class MessageService {
+    public static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "dateSent", "id");
+    public static final Sort OLDEST_FIRST = Sort.by(Sort.Direction.ASC, "dateSent", "id");
+    private static final int DUPLICATE_KEY = 11000;
+
     private final MessageRepository messageRepository;
     private final UserProfileService userService;
-    private final ChatRepository chatRepository;
+    private final MongoTemplate mongoTemplate;
+    private final UnreadCounterService unreadCounterService;
+    private final int snippetLength;
 
     @Autowired
-    public MessageService(MessageRepository messageRepository, UserProfileService userService, ChatRepository chatRepository){
+    public MessageService(MessageRepository messageRepository,
+                          UserProfileService userService,
+                          MongoTemplate mongoTemplate,
+                          UnreadCounterService unreadCounterService,
+                          Environment environment){
         this.messageRepository = messageRepository;
         this.userService = userService;
-        this.chatRepository = chatRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.unreadCounterService = unreadCounterService;
+        this.snippetLength = environment.getProperty("chat.snippet-length", Integer.class, 100);
     }
 
     public Message sendMessage(String senderId, String receiverId, String content) throws UserProfileNotFoundException {
         UserProfile sender = userService.getUserProfileById(senderId);
         UserProfile receiver = userService.getUserProfileById(receiverId);
+        Message message = messageRepository.insert(newMessage(sender, receiver, content, null));
+        updateChats(sender, receiver, message, 1);
+        return message;
+    }
+
+    public Optional<Message> getMessageById(String id) {
+        return messageRepository.findById(id);
+    }
+
+    Message newMessage(UserProfile sender, UserProfile receiver, String content, String clientId) {
         Message message = new Message();
+        message.setConversationId(Message.conversationIdOf(sender.getId(), receiver.getId()));
         message.setDateSent(LocalDateTime.now());
-        message.setSender(sender);
-        message.setReceiver(receiver);
+        message.setSender(UserSummary.of(sender));
+        message.setReceiver(UserSummary.of(receiver));
         message.setContent(content);
-        message = messageRepository.save(message);
-
-        Chat ownerChat = chatRepository.getChatByIds(senderId, receiverId);
-        if(ownerChat == null) {
-            ownerChat = new Chat();
-            ownerChat.setOwner(sender);
-            ownerChat.setFriend(receiver);
-            ownerChat.setRead(true);
+        message.setClientId(clientId);
+        return message;
+    }
+
+    /**
+     * Upserts the inbox entry of both users, the message being the last of the given count sent by the sender to
+     * the receiver. The sender's entry keeps its unread count, the receiver's is incremented. The first operation
+     * only matches when the receiver's entry was read, which tells whether the receiver has one more unread chat.
+     * The last message is then only replaced when it is older, messages written out of order do not overwrite a
+     * newer one.
+     */
+    void updateChats(UserProfile sender, UserProfile receiver, Message message, int count) {
+        ChatMessage lastMessage = ChatMessage.of(message, snippetLength);
+        BulkWriteResult result;
+        try {
+            result = upsertChats(sender, receiver, lastMessage, count);
+        }catch (BulkOperationException e){
+            if(e.getErrors().stream().noneMatch(error -> error.getCode() == DUPLICATE_KEY)){
+                throw e;
+            }
+            //an entry inserted concurrently, the operations before the failed one are idempotent and the ones
+            //after it were not applied, the retry matches the entry
+            result = upsertChats(sender, receiver, lastMessage, count);
+        }
+        boolean senderInserted = result.getUpserts().stream().anyMatch(upsert -> upsert.getIndex() == 1);
+        boolean receiverInserted = result.getUpserts().stream().anyMatch(upsert -> upsert.getIndex() == 2);
+        int wasRead = result.getMatchedCount() - (senderInserted ? 0 : 1) - (receiverInserted ? 0 : 1);
+        if(wasRead > 0 || receiverInserted){
+            unreadCounterService.chatsChanged(receiver.getId(), 1);
+        }
+        if(senderInserted && receiverInserted){
+            return;
         }
-        Chat friendChat = chatRepository.getChatByIds(receiverId, senderId);
-        if(friendChat == null) {
-            friendChat = new Chat();
-            friendChat.setOwner(receiver);
-            friendChat.setFriend(sender);
+        BulkOperations lastMessages = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Chat.class);
+        if(!senderInserted){
+            lastMessages.updateOne(olderThan(chatOf(sender, receiver), lastMessage), lastMessageUpdate(lastMessage));
         }
-        ownerChat.setLastMessage(message);
-        friendChat.setLastMessage(message);
-        friendChat.setRead(false);
-        chatRepository.save(ownerChat);
-        chatRepository.save(friendChat);
+        if(!receiverInserted){
+            lastMessages.updateOne(olderThan(chatOf(receiver, sender), lastMessage), lastMessageUpdate(lastMessage));
+        }
+        lastMessages.execute();
+    }
 
-        return message;
+    private BulkWriteResult upsertChats(UserProfile sender, UserProfile receiver, ChatMessage lastMessage, int count) {
+        return mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Chat.class)
+                .updateOne(chatOf(receiver, sender).addCriteria(Criteria.where("unreadCount").is(0)),
+                        Update.update("unreadCount", 0))
+                .upsert(chatOf(sender, receiver), chatUpdate(receiver, lastMessage)
+                        .setOnInsert("unreadCount", 0))
+                .upsert(chatOf(receiver, sender), chatUpdate(sender, lastMessage)
+                        .inc("unreadCount", count))
+                .execute();
+    }
+
+    private Query chatOf(UserProfile owner, UserProfile friend) {
+        return Query.query(Criteria.where("ownerId").is(owner.getId()).and("friend._id").is(ObjectIds.from(friend.getId())));
+    }
+
+    private Query olderThan(Query chat, ChatMessage lastMessage) {
+        return chat.addCriteria(new Criteria().orOperator(
+                Criteria.where("lastMessageAt").lt(lastMessage.getDateSent()),
+                Criteria.where("lastMessageAt").is(null)));
+    }
+
+    /**
+     * The last message is only set on insert here, an existing entry gets it from a guarded update.
+     */
+    private Update chatUpdate(UserProfile friend, ChatMessage lastMessage) {
+        return new Update()
+                .set("friend", UserSummary.of(friend))
+                .setOnInsert("lastMessage", lastMessage)
+                .setOnInsert("lastMessageAt", lastMessage.getDateSent());
+    }
+
+    private Update lastMessageUpdate(ChatMessage lastMessage) {
+        return new Update()
+                .set("lastMessage", lastMessage)
+                .set("lastMessageAt", lastMessage.getDateSent());
     }
 
     public List<Message> getMessages(String senderId, String receiverId) {
-        List<Message> messages = new ArrayList<>();
-        List<Message> sentMessages = messageRepository.getMessages(senderId, receiverId);
-        List<Message> receivedMessages = messageRepository.getMessages(receiverId, senderId);
-        messages.addAll(sentMessages);
-        messages.addAll(receivedMessages);
-        Collections.sort(messages);
-        return messages;
+        return messageRepository.getMessages(Message.conversationIdOf(senderId, receiverId), PageRequest.of(0, Integer.MAX_VALUE, OLDEST_FIRST));
+    }
+
+    /**
+     * A page of the conversation, newest first. Without cursor the page holds the latest messages, with before
+     * the ones older than the cursor and with after the ones newer than it; the next cursor continues in the same
+     * direction.
+     */
+    public CursorPage<Message> getConversation(String userId, String friendId, String before, String after, int size) throws IllegalArgumentException {
+        int pageSize = CursorPage.clampSize(size);
+        String conversationId = Message.conversationIdOf(userId, friendId);
+
+        if(after != null && !after.isEmpty()){
+            Cursor cursor = Cursor.decode(after);
+            List<Message> messages = messageRepository.getMessagesAfter(conversationId, cursor.getDate(), ObjectIds.from(cursor.getId()),
+                    PageRequest.of(0, pageSize + 1, OLDEST_FIRST));
+            CursorPage<Message> page = CursorPage.of(messages, pageSize, message -> new Cursor(message.getDateSent(), message.getId()));
+            Collections.reverse(page.getContent());
+            return page;
+        }
+        List<Message> messages;
+        if(before == null || before.isEmpty()){
+            messages = messageRepository.getMessages(conversationId, PageRequest.of(0, pageSize + 1, NEWEST_FIRST));
+        }else{
+            Cursor cursor = Cursor.decode(before);
+            messages = messageRepository.getMessagesBefore(conversationId, cursor.getDate(), ObjectIds.from(cursor.getId()),
+                    PageRequest.of(0, pageSize + 1, NEWEST_FIRST));
+        }
+        return CursorPage.of(messages, pageSize, message -> new Cursor(message.getDateSent(), message.getId()));
     }
 }
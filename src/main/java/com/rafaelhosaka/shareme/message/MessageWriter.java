@@ -0,0 +1,279 @@
+package com.rafaelhosaka.shareme.message;
+
+import com.mongodb.bulk.BulkWriteError;
+import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
+import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserProfileService;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the messages sent over STOMP in batches: one bulk insert per batch and one chat update per pair of
+ * users, then delivers each stored message to its receiver and acknowledges it to its sender.
+ */
+@Component
+@Slf4j
+@PropertySource("classpath:application.properties")
+public class MessageWriter {
+    public static final String MESSAGE_DESTINATION = "/message";
+    public static final String ACK_DESTINATION = "/message-ack";
+    private static final int DUPLICATE_KEY = 11000;
+
+    private final MessageService messageService;
+    private final UserProfileService userService;
+    private final MongoTemplate mongoTemplate;
+    private final SimpMessagingTemplate simpMessagingTemplate;
+    private final int maxLength;
+    private final int maxClientIdLength;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+
+    private final BlockingQueue<SendMessageRequest> queue;
+    private ScheduledExecutorService scheduler;
+    private volatile boolean closed = false;
+
+    @Autowired
+    public MessageWriter(MessageService messageService,
+                         UserProfileService userService,
+                         MongoTemplate mongoTemplate,
+                         SimpMessagingTemplate simpMessagingTemplate,
+                         Environment environment) {
+        this.messageService = messageService;
+        this.userService = userService;
+        this.mongoTemplate = mongoTemplate;
+        this.simpMessagingTemplate = simpMessagingTemplate;
+        this.maxLength = environment.getProperty("message.max-length", Integer.class, 5000);
+        this.maxClientIdLength = environment.getProperty("message.client-id.max-length", Integer.class, 64);
+        this.batchSize = environment.getProperty("message.writer.batch-size", Integer.class, 500);
+        this.flushIntervalMillis = environment.getProperty("message.writer.flush-interval-ms", Long.class, 20L);
+        this.queue = new LinkedBlockingQueue<>(environment.getProperty("message.writer.queue-capacity", Integer.class, 10000));
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refuses new messages, then writes the queued ones.
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        closed = true;
+        scheduler.shutdown();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        flushQuietly();
+    }
+
+    /**
+     * Queues the message, or returns the rejection when it is invalid or the writer is full.
+     */
+    public Optional<MessageAck> submit(SendMessageRequest request) {
+        String clientId = request.getClientId();
+        if(request.getSenderId() == null || request.getReceiverId() == null){
+            return Optional.of(MessageAck.rejected(clientId, "Sender and receiver are required"));
+        }
+        if(request.getContent() == null || request.getContent().isBlank()){
+            return Optional.of(MessageAck.rejected(clientId, "Message is empty"));
+        }
+        if(request.getContent().length() > maxLength){
+            return Optional.of(MessageAck.rejected(clientId, "Message is longer than "+maxLength+" characters"));
+        }
+        if(clientId != null && clientId.length() > maxClientIdLength){
+            return Optional.of(MessageAck.rejected(clientId, "Client id is longer than "+maxClientIdLength+" characters"));
+        }
+        if(closed){
+            return Optional.of(MessageAck.rejected(clientId, "Server is shutting down, try again later"));
+        }
+        if(!queue.offer(request)){
+            return Optional.of(MessageAck.rejected(clientId, "Too many messages, try again later"));
+        }
+        if(closed && queue.remove(request)){
+            //queued after the last flush
+            return Optional.of(MessageAck.rejected(clientId, "Server is shutting down, try again later"));
+        }
+        if(queue.size() >= batchSize){
+            try {
+                scheduler.execute(this::flushQuietly);
+            }catch (RejectedExecutionException e){
+                //shutting down, the final flush writes it
+            }
+        }
+        return Optional.empty();
+    }
+
+    public synchronized void flush() {
+        List<SendMessageRequest> batch = new ArrayList<>();
+        while (queue.drainTo(batch, batchSize) > 0) {
+            try {
+                write(batch);
+            }catch (Exception e){
+                log.error("Exception : could not write {} messages : {}", batch.size(), e.getMessage());
+                //none of them is acknowledged as sent, clients retry with the same client id
+                for (SendMessageRequest request : batch) {
+                    send(request.getSenderId(), ACK_DESTINATION, MessageAck.rejected(request.getClientId(), "Message could not be stored, try again"));
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        }catch (Exception e){
+            log.error("Exception : could not write messages : {}", e.getMessage());
+        }
+    }
+
+    private void write(List<SendMessageRequest> requests) {
+        Map<String, UserProfile> users = new HashMap<>();
+        Map<String, Message> byClientId = new HashMap<>();
+        List<Message> messages = new ArrayList<>();
+        //acks of the requests, null until their message is written
+        List<MessageAck> acks = new ArrayList<>();
+        List<Message> requestMessages = new ArrayList<>();
+
+        for (SendMessageRequest request : requests) {
+            UserProfile sender = resolve(users, request.getSenderId());
+            UserProfile receiver = resolve(users, request.getReceiverId());
+            if(sender == null || receiver == null){
+                acks.add(MessageAck.rejected(request.getClientId(), "User not found"));
+                requestMessages.add(null);
+                continue;
+            }
+            String key = request.getClientId() == null ? null : sender.getId() + "\t" + request.getClientId();
+            Message first = key == null ? null : byClientId.get(key);
+            if(first != null){
+                //retried before the first attempt was written
+                acks.add(new MessageAck(request.getClientId(), first.getId(), MessageAckStatus.DUPLICATE, first.getDateSent(), null));
+                requestMessages.add(null);
+                continue;
+            }
+            Message message = messageService.newMessage(sender, receiver, request.getContent(), request.getClientId());
+            message.setId(new ObjectId().toHexString());
+            if(key != null){
+                byClientId.put(key, message);
+            }
+            messages.add(message);
+            acks.add(null);
+            requestMessages.add(message);
+        }
+
+        Map<String, BulkWriteError> errors = new HashMap<>();
+        if(!messages.isEmpty()){
+            try {
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Message.class).insert(messages).execute();
+            }catch (BulkOperationException e){
+                for (BulkWriteError error : e.getErrors()) {
+                    errors.put(messages.get(error.getIndex()).getId(), error);
+                }
+            }
+        }
+
+        List<Message> written = new ArrayList<>();
+        for (int k = 0; k < requests.size(); k++) {
+            Message message = requestMessages.get(k);
+            if(message == null){
+                continue;
+            }
+            BulkWriteError error = errors.get(message.getId());
+            if(error == null){
+                written.add(message);
+                acks.set(k, new MessageAck(message.getClientId(), message.getId(), MessageAckStatus.SENT, message.getDateSent(), null));
+            }else if(error.getCode() == DUPLICATE_KEY && message.getClientId() != null){
+                Message existing = findByClientId(message.getSender().getId(), message.getClientId());
+                acks.set(k, existing == null
+                        ? MessageAck.rejected(message.getClientId(), error.getMessage())
+                        : new MessageAck(message.getClientId(), existing.getId(), MessageAckStatus.DUPLICATE, existing.getDateSent(), null));
+            }else{
+                acks.set(k, MessageAck.rejected(message.getClientId(), error.getMessage()));
+            }
+        }
+
+        updateChats(written, users);
+
+        for (Message message : written) {
+            send(message.getReceiver().getId(), MESSAGE_DESTINATION, message);
+        }
+        for (int k = 0; k < requests.size(); k++) {
+            send(requests.get(k).getSenderId(), ACK_DESTINATION, acks.get(k));
+        }
+    }
+
+    /**
+     * One chat update per pair of users holding their latest message, in the order of these messages
+     * so that the chats of both directions end with the latest one.
+     */
+    private void updateChats(List<Message> written, Map<String, UserProfile> users) {
+        Map<String, List<Message>> byPair = new LinkedHashMap<>();
+        for (Message message : written) {
+            byPair.computeIfAbsent(message.getSender().getId() + "\t" + message.getReceiver().getId(), pair -> new ArrayList<>())
+                    .add(message);
+        }
+        byPair.values().stream()
+                .sorted(Comparator.comparing((List<Message> pair) -> pair.get(pair.size() - 1).getDateSent()))
+                .forEach(pair -> {
+                    Message latest = pair.get(pair.size() - 1);
+                    try {
+                        messageService.updateChats(users.get(latest.getSender().getId()), users.get(latest.getReceiver().getId()), latest, pair.size());
+                    }catch (Exception e){
+                        log.error("Exception : could not update chat of message {} : {}", latest.getId(), e.getMessage());
+                    }
+                });
+    }
+
+    private UserProfile resolve(Map<String, UserProfile> users, String userId) {
+        if(users.containsKey(userId)){
+            return users.get(userId);
+        }
+        UserProfile user = null;
+        try {
+            if(ObjectId.isValid(userId)){
+                user = userService.getUserProfileById(userId);
+            }
+        }catch (UserProfileNotFoundException e){
+            //rejected by the caller
+        }
+        users.put(userId, user);
+        return user;
+    }
+
+    private Message findByClientId(String senderId, String clientId) {
+        return mongoTemplate.findOne(Query.query(Criteria.where("sender._id").is(ObjectIds.from(senderId)).and("clientId").is(clientId)), Message.class);
+    }
+
+    private void send(String userId, String destination, Object payload) {
+        try {
+            simpMessagingTemplate.convertAndSendToUser(userId, destination, payload);
+        }catch (Exception e){
+            log.error("Exception : could not send {} to user {} : {}", destination, userId, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.rafaelhosaka.shareme.message;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A message sent over STOMP. The optional client id makes retries idempotent: a message whose client id
+ * was already used by the sender is acknowledged with the id of the first one and not stored again.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SendMessageRequest {
+    private String senderId;
+
+    private String receiverId;
+
+    private String content;
+
+    private String clientId;
+}
@@ -1,17 +1,17 @@
 package com.rafaelhosaka.shareme.notification;
 
-import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserSummary;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
-import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
 @Document(collection = "notification")
+@CompoundIndex(name = "notification_acceptedFriend_idx", def = "{'acceptedFriend._id': 1}", sparse = true)
 public class FriendAcceptedNotification extends Notification{
-    @DBRef
-    private UserProfile acceptedFriend;
+    private UserSummary acceptedFriend;
 }
\ No newline at end of file
@@ -2,12 +2,14 @@ package com.rafaelhosaka.shareme.notification;
 
 import lombok.Data;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
 
 @Data
 @Document(collection = "notification")
+@CompoundIndex(name = "notification_owner_read_idx", def = "{'ownerUserId': 1, 'read': 1}")
 public abstract class Notification {
     @Id
     private String id;
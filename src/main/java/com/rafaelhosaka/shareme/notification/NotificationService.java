@@ -3,9 +3,16 @@ package com.rafaelhosaka.shareme.notification;
 import com.rafaelhosaka.shareme.exception.NotificationNotFoundException;
 import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
 import com.rafaelhosaka.shareme.friend.FriendRequest;
+import com.rafaelhosaka.shareme.unread.UnreadCounterService;
 import com.rafaelhosaka.shareme.user.UserProfile;
 import com.rafaelhosaka.shareme.user.UserProfileService;
+import com.rafaelhosaka.shareme.user.UserSummary;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
@@ -14,27 +21,39 @@ import java.util.List;
 public class NotificationService {
     private final NotificationRepository notificationRepository;
     private final UserProfileService userProfileService;
+    private final MongoTemplate mongoTemplate;
+    private final UnreadCounterService unreadCounterService;
 
     @Autowired
-    public NotificationService(NotificationRepository notificationRepository, UserProfileService userProfileService){
+    public NotificationService(NotificationRepository notificationRepository,
+                               UserProfileService userProfileService,
+                               MongoTemplate mongoTemplate,
+                               UnreadCounterService unreadCounterService){
         this.notificationRepository = notificationRepository;
         this.userProfileService = userProfileService;
+        this.mongoTemplate = mongoTemplate;
+        this.unreadCounterService = unreadCounterService;
     }
 
     public Notification createFriendRequestNotification(FriendRequest friendRequest) throws UserProfileNotFoundException {
         UserProfile requestingUser = userProfileService.getUserProfileById(friendRequest.getRequestingUserId());
         FriendRequestNotification notification = new FriendRequestNotification();
-        notification.setFriendRequesting(requestingUser);
+        notification.setFriendRequesting(UserSummary.of(requestingUser));
         notification.setOwnerUserId(friendRequest.getTargetUserId());
-        return notificationRepository.save(notification);
+        return created(notificationRepository.save(notification));
     }
 
     public Notification createFriendAcceptedNotification(FriendRequest friendRequest) throws UserProfileNotFoundException {
         UserProfile acceptedUser = userProfileService.getUserProfileById(friendRequest.getTargetUserId());
         FriendAcceptedNotification notification = new FriendAcceptedNotification();
-        notification.setAcceptedFriend(acceptedUser);
+        notification.setAcceptedFriend(UserSummary.of(acceptedUser));
         notification.setOwnerUserId(friendRequest.getRequestingUserId());
-        return notificationRepository.save(notification);
+        return created(notificationRepository.save(notification));
+    }
+
+    private Notification created(Notification notification) {
+        unreadCounterService.notificationsChanged(notification.getOwnerUserId(), 1);
+        return notification;
     }
 
     public List<Notification> getNotificationsByUserId(String id) {
@@ -42,15 +61,20 @@ public class NotificationService {
     }
 
     public Notification markAsRead(String id) throws NotificationNotFoundException {
-        Notification notification = notificationRepository.findById(id).orElseThrow(
-                () -> new NotificationNotFoundException("Notification with id "+id+" not found")
-        );
-        notification.setRead(true);
-        return notificationRepository.save(notification);
+        Notification notification = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("id").is(id).and("read").is(false)),
+                Update.update("read", true),
+                FindAndModifyOptions.options().returnNew(true),
+                Notification.class);
+        if(notification != null){
+            unreadCounterService.notificationsChanged(notification.getOwnerUserId(), -1);
+            return notification;
+        }
+        return getNotificationById(id);
     }
 
     public int unreadCount(String id) {
-        return notificationRepository.getUnreadByUserId(id).size();
+        return unreadCounterService.getUnreadNotifications(id);
     }
 
     public Notification getNotificationById(String notificationId) throws NotificationNotFoundException{
@@ -61,6 +85,9 @@ public class NotificationService {
     }
 
     public void deleteNotification(String notificationId) throws NotificationNotFoundException {
-        notificationRepository.deleteById(notificationId);
+        Notification notification = mongoTemplate.findAndRemove(Query.query(Criteria.where("id").is(notificationId)), Notification.class);
+        if(notification != null && !notification.isRead()){
+            unreadCounterService.notificationsChanged(notification.getOwnerUserId(), -1);
+        }
     }
 }
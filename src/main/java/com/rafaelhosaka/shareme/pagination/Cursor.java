@@ -0,0 +1,36 @@
+package com.rafaelhosaka.shareme.pagination;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+@Getter
+@AllArgsConstructor
+public class Cursor {
+    private static final String SEPARATOR = "|";
+
+    private LocalDateTime date;
+    private String id;
+
+    public String encode() {
+        String raw = date.toString() + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Cursor decode(String encoded) throws IllegalArgumentException {
+        String raw = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8);
+        int separator = raw.indexOf(SEPARATOR);
+        if(separator < 0){
+            throw new IllegalArgumentException("Invalid cursor "+encoded);
+        }
+        try {
+            return new Cursor(LocalDateTime.parse(raw.substring(0, separator)), raw.substring(separator + 1));
+        }catch (DateTimeParseException e){
+            throw new IllegalArgumentException("Invalid cursor "+encoded, e);
+        }
+    }
+}
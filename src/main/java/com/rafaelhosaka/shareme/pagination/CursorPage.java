@@ -0,0 +1,39 @@
+package com.rafaelhosaka.shareme.pagination;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.function.Function;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CursorPage<T> {
+    public static final int DEFAULT_SIZE = 20;
+    public static final int MAX_SIZE = 50;
+
+    private List<T> content;
+
+    private String nextCursor;
+
+    public static int clampSize(int size) {
+        if(size <= 0){
+            return DEFAULT_SIZE;
+        }
+        return Math.min(size, MAX_SIZE);
+    }
+
+    /**
+     * Builds a page from a query that fetched one element more than the page size,
+     * the extra element only tells whether a next page exists.
+     */
+    public static <T> CursorPage<T> of(List<T> fetched, int size, Function<T, Cursor> cursorOf) {
+        if(fetched.size() <= size){
+            return new CursorPage<>(fetched, null);
+        }
+        List<T> content = fetched.subList(0, size);
+        return new CursorPage<>(content, cursorOf.apply(content.get(size - 1)).encode());
+    }
+}
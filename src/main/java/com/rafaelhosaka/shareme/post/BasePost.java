@@ -1,25 +1,30 @@
 package com.rafaelhosaka.shareme.post;
 
 import com.rafaelhosaka.shareme.comment.Comment;
-import com.rafaelhosaka.shareme.like.Like;
+import com.rafaelhosaka.shareme.like.Likeable;
 import com.rafaelhosaka.shareme.user.UserProfile;
 import com.rafaelhosaka.shareme.visibility.Visibility;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 @Data
 @Document(collection = "post")
-public abstract class BasePost {
+@CompoundIndexes({
+        @CompoundIndex(name = "post_user_date_idx", def = "{'user.$id': 1, 'dateCreated': -1, '_id': -1}"),
+        @CompoundIndex(name = "post_visibility_allowed_date_idx", def = "{'visibility.type': 1, 'visibility.allowedIds': 1, 'dateCreated': -1, '_id': -1}")
+})
+public abstract class BasePost implements Likeable {
     @Id
     private String id;
 
@@ -27,13 +32,17 @@ public abstract class BasePost {
 
     private LocalDateTime dateCreated;
 
-    private Set<Like> likes = new HashSet<>();
+    private long likeCount;
+
+    @Transient
+    private boolean likedByMe;
 
     @DBRef
     private UserProfile user;
 
-    @DBRef
-    private List<Comment> comments = new ArrayList<>();
+    private long commentCount;
+
+    private List<Comment> commentPreviews = new ArrayList<>();
 
     private Visibility visibility;
 }
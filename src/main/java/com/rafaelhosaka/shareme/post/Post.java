@@ -1,5 +1,6 @@
 package com.rafaelhosaka.shareme.post;
 
+import com.rafaelhosaka.shareme.filestore.UploadStatus;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -15,5 +16,6 @@ import java.util.*;
 public class Post extends  BasePost{
     private String fileName; //S3 key
     private String fileType;
+    private UploadStatus uploadStatus;
     private Set<String> sharedUsersId = new HashSet<>();
 }
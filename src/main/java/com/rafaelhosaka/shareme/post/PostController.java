@@ -1,9 +1,9 @@
 package com.rafaelhosaka.shareme.post;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.rafaelhosaka.shareme.exception.CommentNotFoundException;
 import com.rafaelhosaka.shareme.exception.PostNotFoundException;
 import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
 import com.rafaelhosaka.shareme.utils.JsonConverter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -14,6 +14,9 @@ import org.springframework.lang.Nullable;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
 
 @RestController
@@ -34,9 +37,10 @@ public class PostController {
     }
 
     @GetMapping("{id}")
-    public ResponseEntity<BasePost> getPostById(@PathVariable("id") String id) {
+    public ResponseEntity<BasePost> getPostById(@PathVariable("id") String id,
+                                                @RequestParam(value = "userId", required = false) String userId) {
         try {
-            return ResponseEntity.ok().body(postService.getPostById(id));
+            return ResponseEntity.ok().body(postService.getPostById(id, userId));
         }catch(PostNotFoundException e){
             log.error("Exception : {}",e.getMessage());
             return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND);
@@ -48,6 +52,19 @@ public class PostController {
         return ResponseEntity.ok(postService.getPostsByUsers(usersIds));
     }
 
+    @PostMapping("/feed")
+    public ResponseEntity<CursorPage<BasePost>> getFeed(@RequestBody List<String> usersIds,
+                                                        @RequestParam(value = "userId", required = false) String userId,
+                                                        @RequestParam(value = "cursor", required = false) String cursor,
+                                                        @RequestParam(value = "size", defaultValue = "20") int size){
+        try {
+            return ResponseEntity.ok(postService.getFeed(usersIds, userId, cursor, size));
+        }catch(IllegalArgumentException e){
+            log.error("Exception : {}",e.getMessage());
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @PostMapping(
             path = "/upload",
             consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.MULTIPART_FORM_DATA_VALUE}
@@ -78,14 +95,39 @@ public class PostController {
         }
     }
     
+    @GetMapping("/image/{id}")
+    public void streamPostImage(@PathVariable("id") String id,
+                                @RequestParam(value = "size", required = false) Integer size,
+                                HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            postService.streamPostImage(id, size, request, response);
+        }catch (PostNotFoundException e){
+            log.error("Exception : {}",e.getMessage());
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+        }
+    }
+
     @DeleteMapping("/delete")
-    public void deletePost(@RequestBody String postId) {
+    public ResponseEntity<PostDeletion> deletePost(@RequestBody String postId) {
+        try {
+            PostDeletion deletion = postService.deletePost(postId);
+            if(deletion == null){
+                return ResponseEntity.noContent().build();
+            }
+            return ResponseEntity.accepted().body(deletion);
+        } catch (PostNotFoundException e) {
+            log.error("Exception : {}",e.getMessage());
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping("/delete/{id}")
+    public ResponseEntity<PostDeletion> getPostDeletion(@PathVariable("id") String id) {
         try {
-            postService.deletePost(postId);
+            return ResponseEntity.ok().body(postService.getPostDeletion(id));
         } catch (PostNotFoundException e) {
-            e.printStackTrace();
-        } catch (CommentNotFoundException e) {
-            e.printStackTrace();
+            log.error("Exception : {}",e.getMessage());
+            return ResponseEntity.notFound().build();
         }
     }
 
@@ -100,8 +142,12 @@ public class PostController {
     }
 
     @PutMapping("/update")
-    public ResponseEntity<Post> updatePost(@RequestBody Post post){
-        return ResponseEntity.ok().body(postService.updatePost(post));
+    public ResponseEntity<BasePost> updatePost(@RequestBody Post post){
+        try {
+            return ResponseEntity.ok().body(postService.updatePost(post));
+        }catch (PostNotFoundException e){
+            return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
     }
 
     @GetMapping("/group/{id}")
@@ -109,6 +155,18 @@ public class PostController {
         return ResponseEntity.ok().body(postService.getGroupPosts(groupId));
     }
 
+    @GetMapping("/group/feed/{id}")
+    public ResponseEntity<CursorPage<BasePost>> getGroupFeed(@PathVariable("id") String userId,
+                                                             @RequestParam(value = "cursor", required = false) String cursor,
+                                                             @RequestParam(value = "size", defaultValue = "20") int size){
+        try {
+            return ResponseEntity.ok(postService.getGroupFeed(userId, cursor, size));
+        }catch(IllegalArgumentException e){
+            log.error("Exception : {}",e.getMessage());
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
     @GetMapping("/group/all/{id}")
     public ResponseEntity<List<BasePost>> getAllGroupsPosts(@PathVariable("id")String userId){
         return ResponseEntity.ok().body(postService.getAllGroupPosts(userId));
@@ -0,0 +1,44 @@
+package com.rafaelhosaka.shareme.post;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progress of the background deletion of the comments of a deleted post.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Document(collection = "postDeletion")
+public class PostDeletion {
+    @Id
+    private String id;
+
+    private String postId;
+
+    @Indexed
+    private PostDeletionStatus status;
+
+    private long totalComments;
+
+    private long deletedComments;
+
+    private LocalDateTime dateCreated;
+
+    private LocalDateTime dateCompleted;
+
+    private String error;
+
+    public PostDeletion(String postId, long totalComments) {
+        this.postId = postId;
+        this.status = PostDeletionStatus.RUNNING;
+        this.totalComments = totalComments;
+        this.dateCreated = LocalDateTime.now();
+    }
+}
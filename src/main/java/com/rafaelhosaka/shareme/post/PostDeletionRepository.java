@@ -0,0 +1,12 @@
+package com.rafaelhosaka.shareme.post;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.util.List;
+
+public interface PostDeletionRepository extends MongoRepository<PostDeletion, String> {
+
+    @Query("{ 'status' : 'RUNNING' }")
+    List<PostDeletion> getRunningDeletions();
+}
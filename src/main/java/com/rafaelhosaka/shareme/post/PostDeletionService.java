@@ -0,0 +1,89 @@
+package com.rafaelhosaka.shareme.post;
+
+import com.rafaelhosaka.shareme.comment.CommentService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Deletes the comments of a deleted post in batches. Posts with few comments are cleaned up in the request,
+ * larger ones by a background job whose progress is stored, so that it can be followed and resumed after a restart.
+ */
+@Service
+@Slf4j
+@PropertySource("classpath:application.properties")
+public class PostDeletionService {
+    private final PostDeletionRepository deletionRepository;
+    private final CommentService commentService;
+    private final MongoTemplate mongoTemplate;
+    private final int batchSize;
+    private final long asyncThreshold;
+
+    @Autowired
+    public PostDeletionService(PostDeletionRepository deletionRepository,
+                               CommentService commentService,
+                               MongoTemplate mongoTemplate,
+                               Environment environment) {
+        this.deletionRepository = deletionRepository;
+        this.commentService = commentService;
+        this.mongoTemplate = mongoTemplate;
+        this.batchSize = environment.getProperty("post.delete.batch-size", Integer.class, 1000);
+        this.asyncThreshold = environment.getProperty("post.delete.async-threshold", Long.class, 500L);
+    }
+
+    /**
+     * Returns the background job, or null when the comments were deleted right away.
+     */
+    public PostDeletion deleteComments(String postId, long commentCount) {
+        if(commentCount <= asyncThreshold){
+            commentService.deletePostComments(postId, batchSize, deleted -> {});
+            return null;
+        }
+        PostDeletion deletion = deletionRepository.save(new PostDeletion(postId, commentCount));
+        CompletableFuture.runAsync(() -> run(deletion));
+        return deletion;
+    }
+
+    public Optional<PostDeletion> getDeletion(String id) {
+        return deletionRepository.findById(id);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeOnStartup() {
+        CompletableFuture.runAsync(() -> {
+            try {
+                deletionRepository.getRunningDeletions().forEach(this::run);
+            }catch (Exception e){
+                log.error("Exception : could not resume post deletions : {}", e.getMessage());
+            }
+        });
+    }
+
+    private void run(PostDeletion deletion) {
+        Query byId = Query.query(Criteria.where("id").is(deletion.getId()));
+        try {
+            commentService.deletePostComments(deletion.getPostId(), batchSize,
+                    deleted -> mongoTemplate.updateFirst(byId, new Update().inc("deletedComments", deleted), PostDeletion.class));
+            mongoTemplate.updateFirst(byId,
+                    new Update().set("status", PostDeletionStatus.COMPLETED).set("dateCompleted", LocalDateTime.now()),
+                    PostDeletion.class);
+        }catch (Exception e){
+            log.error("Exception : deletion of the comments of post {} failed : {}", deletion.getPostId(), e.getMessage());
+            mongoTemplate.updateFirst(byId,
+                    new Update().set("status", PostDeletionStatus.FAILED).set("error", e.getMessage()),
+                    PostDeletion.class);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.rafaelhosaka.shareme.post;
+
+public enum PostDeletionStatus {
+    RUNNING,
+    COMPLETED,
+    FAILED
+}
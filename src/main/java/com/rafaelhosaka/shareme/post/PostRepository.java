@@ -1,10 +1,14 @@
 package com.rafaelhosaka.shareme.post;
 
 import com.rafaelhosaka.shareme.user.UserProfile;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 public interface PostRepository extends MongoRepository<BasePost, String> {
 
@@ -17,6 +21,27 @@ public interface PostRepository extends MongoRepository<BasePost, String> {
     @Override
     List<BasePost> findAll();
 
-    @Query("{'$and' : [ {'visibility.type': 'GROUP'} , { 'visibility.allowedIds' : {'$in': [?0]} } ]}")
-    List<BasePost> getGroupPosts(String groupId);
+    @Query("{ 'visibility.type' : 'GROUP', 'visibility.allowedIds' : { '$in' : ?0 } }")
+    List<BasePost> getGroupPosts(List<String> groupsIds, Pageable pageable);
+
+    @Query("{ 'visibility.type' : 'GROUP', 'visibility.allowedIds' : { '$in' : ?0 }, " +
+            "'$or' : [ { 'dateCreated' : { '$lt' : ?1 } }, { 'dateCreated' : ?1, '_id' : { '$lt' : ?2 } } ] }")
+    List<BasePost> getGroupPostsBefore(List<String> groupsIds, LocalDateTime date, ObjectId id, Pageable pageable);
+
+    @Query("{ 'user.$id' : { '$in' : ?0 }, 'visibility.type' : 'PUBLIC' }")
+    List<BasePost> getPublicPostsByUsersIds(List<ObjectId> usersIds, Pageable pageable);
+
+    @Query("{ 'user.$id' : { '$in' : ?0 }, 'visibility.type' : 'PUBLIC', " +
+            "'$or' : [ { 'dateCreated' : { '$lt' : ?1 } }, { 'dateCreated' : ?1, '_id' : { '$lt' : ?2 } } ] }")
+    List<BasePost> getPublicPostsByUsersIdsBefore(List<ObjectId> usersIds, LocalDateTime date, ObjectId id, Pageable pageable);
+
+    @Query(value = "{ '_id' : ?0 }", fields = "{ 'fileName' : 1, '_class' : 1 }")
+    Optional<BasePost> getFileNameById(String id);
+
+    @Query("{ '_id' : { '$in' : ?0 } }")
+    List<BasePost> getPostsByIds(List<ObjectId> ids, Pageable pageable);
+
+    @Query("{ '_id' : { '$in' : ?0 }, " +
+            "'$or' : [ { 'dateCreated' : { '$lt' : ?1 } }, { 'dateCreated' : ?1, '_id' : { '$lt' : ?2 } } ] }")
+    List<BasePost> getPostsByIdsBefore(List<ObjectId> ids, LocalDateTime date, ObjectId id, Pageable pageable);
 }
@@ -1,53 +1,96 @@
 package com.rafaelhosaka.shareme.post;
 
 
-import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.util.IOUtils;
 import com.rafaelhosaka.shareme.bucket.BucketName;
-import com.rafaelhosaka.shareme.comment.Comment;
-import com.rafaelhosaka.shareme.comment.CommentService;
-import com.rafaelhosaka.shareme.exception.CommentNotFoundException;
 import com.rafaelhosaka.shareme.exception.PostNotFoundException;
 import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
 import com.rafaelhosaka.shareme.filestore.FileStore;
-
-import com.rafaelhosaka.shareme.group.Group;
-import com.rafaelhosaka.shareme.group.GroupRepository;
+import com.rafaelhosaka.shareme.filestore.FileStreamer;
+import com.rafaelhosaka.shareme.filestore.ImageDerivativeService;
+import com.rafaelhosaka.shareme.filestore.StoredFile;
+import com.rafaelhosaka.shareme.filestore.UploadStatus;
+import com.rafaelhosaka.shareme.filestore.UploadTracker;
+
+import com.rafaelhosaka.shareme.group.GroupService;
+import com.rafaelhosaka.shareme.like.LikeService;
+import com.rafaelhosaka.shareme.pagination.Cursor;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
+import com.rafaelhosaka.shareme.timeline.TimelineService;
 import com.rafaelhosaka.shareme.user.UserProfile;
 import com.rafaelhosaka.shareme.user.UserProfileRepository;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
 import com.rafaelhosaka.shareme.visibility.Visibility;
 import com.rafaelhosaka.shareme.visibility.VisibilityType;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
 
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Service
+@PropertySource("classpath:application.properties")
 public class PostService {
+    public static final Sort NEWEST_FIRST = Sort.by(Sort.Direction.DESC, "dateCreated", "id");
 
     private final PostRepository postRepository;
-    private final CommentService commentService;
+    private final PostDeletionService postDeletionService;
+    private final MongoTemplate mongoTemplate;
+    private final int maxFeedGroups;
     private final UserProfileRepository userRepository;
     private final FileStore fileStore;
-    private final GroupRepository groupRepository;
+    private final FileStreamer fileStreamer;
+    private final UploadTracker uploadTracker;
+    private final ImageDerivativeService imageDerivativeService;
+    private final GroupService groupService;
+    private final TimelineService timelineService;
+    private final LikeService likeService;
 
     @Autowired
     public PostService(PostRepository postRepository,
-                       CommentService commentService,
+                       PostDeletionService postDeletionService,
+                       MongoTemplate mongoTemplate,
                        FileStore fileStore,
+                       FileStreamer fileStreamer,
+                       UploadTracker uploadTracker,
+                       ImageDerivativeService imageDerivativeService,
                        UserProfileRepository userRepository,
-                       GroupRepository groupRepository) {
+                       GroupService groupService,
+                       TimelineService timelineService,
+                       LikeService likeService,
+                       Environment environment) {
         this.postRepository = postRepository;
-        this.commentService = commentService;
+        this.postDeletionService = postDeletionService;
+        this.mongoTemplate = mongoTemplate;
         this.fileStore = fileStore;
+        this.fileStreamer = fileStreamer;
+        this.uploadTracker = uploadTracker;
+        this.imageDerivativeService = imageDerivativeService;
         this.userRepository = userRepository;
-        this.groupRepository = groupRepository;
+        this.groupService = groupService;
+        this.timelineService = timelineService;
+        this.likeService = likeService;
+        this.maxFeedGroups = environment.getProperty("post.group-feed.max-groups", Integer.class, 200);
     }
 
     public List<BasePost> getAll() {
@@ -59,7 +102,9 @@ public class PostService {
             post.setVisibility(new Visibility(VisibilityType.PUBLIC, new ArrayList<>()));
         }
         post.setDateCreated(LocalDateTime.now());
-        return postRepository.save(post);
+        post = postRepository.save(post);
+        timelineService.fanOut(post);
+        return post;
     }
 
     public Post savePostWithImage(Post post, MultipartFile file) {
@@ -70,14 +115,14 @@ public class PostService {
             String fileName =  String.format("%s-%s", file.getOriginalFilename(), UUID.randomUUID());
             post.setFileName(fileName);
             post.setFileType(file.getContentType());
+            post.setUploadStatus(UploadStatus.PENDING);
             post.setDateCreated(LocalDateTime.now());
             post = save(post);
 
-            fileStore.upload(
-                    String.format("%s/%s", BucketName.POSTS.getName(), post.getId()),
-                    fileName,
-                    Optional.of(fileStore.getMetadata(file)),
-                    file.getInputStream());
+            String path = String.format("%s/%s", BucketName.POSTS.getName(), post.getId());
+            CompletableFuture<Void> upload = fileStore.uploadAsync(path, fileName, file);
+            uploadTracker.track(upload, Post.class, post.getId(), "fileName", fileName, "uploadStatus");
+            imageDerivativeService.generateAfter(upload, path, fileName, file.getContentType());
 
         }catch (Exception e){
             e.printStackTrace();
@@ -89,10 +134,10 @@ public class PostService {
         Post post = (Post) getPostById(postId);
         List returnData = new ArrayList();
         try{
-            S3Object object =  fileStore.download(
+            StoredFile object =  fileStore.download(
                     String.format("%s/%s", BucketName.POSTS.getName(), postId) ,
                     post.getFileName());
-            byte[] encoded = object == null ? new byte[0] : Base64.getEncoder().encode(IOUtils.toByteArray(object.getObjectContent()));
+            byte[] encoded = object == null ? new byte[0] : Base64.getEncoder().encode(fileStore.readAllBytes(object));
             returnData.add(new String(encoded, StandardCharsets.US_ASCII));
             returnData.add(post.getFileType());
             return returnData;
@@ -103,39 +148,80 @@ public class PostService {
 
 
 
+    public void streamPostImage(String postId, Integer size, HttpServletRequest request, HttpServletResponse response) throws PostNotFoundException, IOException {
+        BasePost post = postRepository.getFileNameById(postId).orElseThrow(
+                () ->  new PostNotFoundException("Post with ID "+postId+" not found")
+        );
+        fileStreamer.write(
+                String.format("%s/%s", BucketName.POSTS.getName(), postId),
+                post instanceof Post ? ((Post) post).getFileName() : null,
+                size,
+                request,
+                response);
+    }
+
     public BasePost getPostById(String id) throws PostNotFoundException {
         return postRepository.findById(id).orElseThrow(
                 () ->  new PostNotFoundException("Post with ID "+id+" not found")
         );
     }
 
+    public BasePost getPostById(String id, String userId) throws PostNotFoundException {
+        return likeService.withPostsLikeState(userId, List.of(getPostById(id))).get(0);
+    }
+
     public List<BasePost> getPostsByUsers(List<String> usersIds) {
-        List<BasePost> posts = new ArrayList<>();
-        for (String id: usersIds) {
-            posts.addAll(postRepository.getPostByUserId(id));
+        return postRepository.getPublicPostsByUsersIds(ObjectIds.from(usersIds), PageRequest.of(0, Integer.MAX_VALUE, NEWEST_FIRST));
+    }
+
+    public CursorPage<BasePost> getFeed(List<String> usersIds, String userId, String cursor, int size) throws IllegalArgumentException {
+        int pageSize = CursorPage.clampSize(size);
+        Pageable pageable = PageRequest.of(0, pageSize + 1, NEWEST_FIRST);
+        List<ObjectId> ids = ObjectIds.from(usersIds);
+
+        List<BasePost> posts;
+        if(cursor == null || cursor.isEmpty()){
+            posts = postRepository.getPublicPostsByUsersIds(ids, pageable);
+        }else{
+            Cursor after = Cursor.decode(cursor);
+            posts = postRepository.getPublicPostsByUsersIdsBefore(ids, after.getDate(), ObjectIds.from(after.getId()), pageable);
         }
-        return posts;
+        CursorPage<BasePost> page = CursorPage.of(posts, pageSize, post -> new Cursor(post.getDateCreated(), post.getId()));
+        likeService.withPostsLikeState(userId, page.getContent());
+        return page;
     }
 
-    public void deletePost(String postId) throws PostNotFoundException, CommentNotFoundException {
+    /**
+     * Deletes the post, its file and its likes right away. Its comments are deleted in batches, in the
+     * background when there are many, in which case the returned deletion tracks the progress.
+     */
+    public PostDeletion deletePost(String postId) throws PostNotFoundException {
         BasePost post = getPostById(postId);
 
         if(post instanceof Post) {
             if (((Post) post).getFileName() != null && !((Post)post).getFileName().isEmpty()) {
                 fileStore.delete(String.format("%s/%s", BucketName.POSTS.getName(), post.getId()), ((Post)post).getFileName());
+                imageDerivativeService.delete(String.format("%s/%s", BucketName.POSTS.getName(), post.getId()), ((Post)post).getFileName());
             }
         }else{
-            Post sharedPost = (Post) getPostById(((SharedPost)post).getSharedPost().getId());
-            Set<String> newSharedUserId = sharedPost.getSharedUsersId().stream().filter(id ->  !((SharedPost)post).getSharedPost().getUser().getId().equals(id)).collect(Collectors.toSet());
-            sharedPost.setSharedUsersId(newSharedUserId);
-            postRepository.save(sharedPost);
-        }
-
-        for(Comment comment : post.getComments()){
-            commentService.deleteComment(comment.getId(),post.getId());
+            Post sharedPost = ((SharedPost)post).getSharedPost();
+            if(sharedPost != null && post.getUser() != null){
+                //the sharer, not the author of the shared post
+                mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(sharedPost.getId())),
+                        new Update().pull("sharedUsersId", post.getUser().getId()),
+                        BasePost.class);
+            }
         }
 
         postRepository.delete(post);
+        likeService.deleteLikes(List.of(post.getId()));
+        return postDeletionService.deleteComments(post.getId(), post.getCommentCount());
+    }
+
+    public PostDeletion getPostDeletion(String id) throws PostNotFoundException {
+        return postDeletionService.getDeletion(id).orElseThrow(
+                () -> new PostNotFoundException("Post deletion with ID "+id+" not found")
+        );
     }
 
     public List<BasePost> sharePost(String sharedPostId, String sharingUserId) throws  PostNotFoundException, UserProfileNotFoundException {
@@ -156,29 +242,68 @@ public class PostService {
         if(sharedPost.getVisibility() == null){
             sharedPost.setVisibility(new Visibility(VisibilityType.PUBLIC, new ArrayList<>()));
         }
-        result.add(postRepository.save(sharedPost));
+        sharedPost = postRepository.save(sharedPost);
+        timelineService.fanOut(sharedPost);
+        result.add(sharedPost);
 
         post.getSharedUsersId().add(sharingUserId);
-        result.add(postRepository.save(post));
+        mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(post.getId())),
+                new Update().addToSet("sharedUsersId", sharingUserId), Post.class);
+        result.add(post);
 
         return result;
     }
 
-    public Post updatePost(Post post) {
-        return postRepository.save(post);
+    /**
+     * Sets only the fields the author edits, the counters, previews and upload status are kept by their own
+     * atomic updates and a full write of the client's copy would roll them back.
+     */
+    public BasePost updatePost(BasePost post) throws PostNotFoundException {
+        Update update = Update.update("description", post.getDescription());
+        if(post.getVisibility() != null){
+            update.set("visibility", post.getVisibility());
+        }
+        BasePost updated = mongoTemplate.findAndModify(Query.query(Criteria.where("id").is(post.getId())), update,
+                FindAndModifyOptions.options().returnNew(true), BasePost.class);
+        if(updated == null){
+            throw new PostNotFoundException("Post with ID "+post.getId()+" not found");
+        }
+        return updated;
     }
 
     public List<BasePost> getGroupPosts(String groupId) {
-        return postRepository.getGroupPosts(groupId);
+        return postRepository.getGroupPosts(List.of(groupId), PageRequest.of(0, Integer.MAX_VALUE, NEWEST_FIRST));
     }
 
     public List<BasePost> getAllGroupPosts(String userId) {
-        List<BasePost> posts = new ArrayList<>();
-        List<Group> groups = groupRepository.getGroupsByUserId(userId);
-        for (Group group: groups) {
-            posts.addAll(getGroupPosts(group.getId()));
+        //every post is returned, the groups are not limited like the paged feed
+        return postRepository.getGroupPosts(groupService.getGroupIdsOfUser(userId, Integer.MAX_VALUE), PageRequest.of(0, Integer.MAX_VALUE, NEWEST_FIRST));
+    }
+
+    /**
+     * Posts of the groups of the user, read with one query on the visibility index. Only the post.group-feed.max-groups
+     * last joined groups are read.
+     */
+    public CursorPage<BasePost> getGroupFeed(String userId, String cursor, int size) throws IllegalArgumentException {
+        int pageSize = CursorPage.clampSize(size);
+        Pageable pageable = PageRequest.of(0, pageSize + 1, NEWEST_FIRST);
+        List<String> groupsIds = getGroupsIds(userId);
+
+        List<BasePost> posts;
+        if(groupsIds.isEmpty()){
+            posts = new ArrayList<>();
+        }else if(cursor == null || cursor.isEmpty()){
+            posts = postRepository.getGroupPosts(groupsIds, pageable);
+        }else{
+            Cursor after = Cursor.decode(cursor);
+            posts = postRepository.getGroupPostsBefore(groupsIds, after.getDate(), ObjectIds.from(after.getId()), pageable);
         }
+        CursorPage<BasePost> page = CursorPage.of(posts, pageSize, post -> new Cursor(post.getDateCreated(), post.getId()));
+        likeService.withPostsLikeState(userId, page.getContent());
+        return page;
+    }
 
-        return posts;
+    private List<String> getGroupsIds(String userId) {
+        return groupService.getGroupIdsOfUser(userId, maxFeedGroups);
     }
 }
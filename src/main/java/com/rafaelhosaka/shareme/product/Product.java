@@ -1,5 +1,6 @@
 package com.rafaelhosaka.shareme.product;
 
+import com.rafaelhosaka.shareme.filestore.UploadStatus;
 import com.rafaelhosaka.shareme.user.UserProfile;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -36,6 +37,8 @@ public class Product {
 
     private String fileName;
 
+    private UploadStatus uploadStatus;
+
     @DBRef
     private UserProfile user;
 }
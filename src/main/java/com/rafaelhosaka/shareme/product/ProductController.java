@@ -12,6 +12,9 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.Base64;
 import java.util.List;
 
@@ -56,6 +59,17 @@ public class ProductController {
         }
     }
 
+    @GetMapping("/image/{id}")
+    public void streamProductImage(@PathVariable("id") String id,
+                                   @RequestParam(value = "size", required = false) Integer size,
+                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            productService.streamProductImage(id, size, request, response);
+        }catch (ProductNotFoundException e){
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+        }
+    }
+
     @GetMapping("/category")
     public ResponseEntity<Category[]> getCategories(){
         return ResponseEntity.ok().body(Category.values());
@@ -4,9 +4,13 @@ import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 
 import java.util.List;
+import java.util.Optional;
 
 public interface ProductRepository extends MongoRepository<Product, String> {
 
     @Query("{ 'category' : ?0 }")
     List<Product> getProductByCategory(Category category);
+
+    @Query(value = "{ '_id' : ?0 }", fields = "{ 'fileName' : 1 }")
+    Optional<Product> getFileNameById(String id);
 }
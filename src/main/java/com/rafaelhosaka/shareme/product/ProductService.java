@@ -1,30 +1,47 @@
 package com.rafaelhosaka.shareme.product;
 
-import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.util.IOUtils;
 import com.rafaelhosaka.shareme.bucket.BucketName;
 import com.rafaelhosaka.shareme.exception.PostNotFoundException;
 import com.rafaelhosaka.shareme.exception.ProductNotFoundException;
 import com.rafaelhosaka.shareme.filestore.FileStore;
+import com.rafaelhosaka.shareme.filestore.FileStreamer;
+import com.rafaelhosaka.shareme.filestore.ImageDerivativeService;
+import com.rafaelhosaka.shareme.filestore.StoredFile;
+import com.rafaelhosaka.shareme.filestore.UploadStatus;
+import com.rafaelhosaka.shareme.filestore.UploadTracker;
 import com.rafaelhosaka.shareme.post.Post;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class ProductService {
     private ProductRepository productRepository;
     private final FileStore fileStore;
+    private final FileStreamer fileStreamer;
+    private final UploadTracker uploadTracker;
+    private final ImageDerivativeService imageDerivativeService;
 
     @Autowired
-    public ProductService(ProductRepository productRepository, FileStore fileStore){
+    public ProductService(ProductRepository productRepository,
+                          FileStore fileStore,
+                          FileStreamer fileStreamer,
+                          UploadTracker uploadTracker,
+                          ImageDerivativeService imageDerivativeService){
         this.productRepository = productRepository;
         this.fileStore = fileStore;
+        this.fileStreamer = fileStreamer;
+        this.uploadTracker = uploadTracker;
+        this.imageDerivativeService = imageDerivativeService;
     }
 
     public List<Product> getAll() {
@@ -44,15 +61,15 @@ public class ProductService {
     public Product createPost(Product product, MultipartFile file) {
         String fileName =  String.format("%s-%s", file.getOriginalFilename(), UUID.randomUUID());
         product.setFileName(fileName);
+        product.setUploadStatus(UploadStatus.PENDING);
         product.setDateCreated(LocalDateTime.now());
         product =  productRepository.save(product);
 
         try {
-            fileStore.upload(
-                    String.format("%s/%s", BucketName.PRODUCTS.getName(), product.getId()),
-                    fileName,
-                    Optional.of(fileStore.getMetadata(file)),
-                    file.getInputStream());
+            String path = String.format("%s/%s", BucketName.PRODUCTS.getName(), product.getId());
+            CompletableFuture<Void> upload = fileStore.uploadAsync(path, fileName, file);
+            uploadTracker.track(upload, Product.class, product.getId(), "fileName", fileName, "uploadStatus");
+            imageDerivativeService.generateAfter(upload, path, fileName, file.getContentType());
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -60,18 +77,25 @@ public class ProductService {
         return product;
     }
 
+    public void streamProductImage(String productId, Integer size, HttpServletRequest request, HttpServletResponse response) throws ProductNotFoundException, IOException {
+        Product product = productRepository.getFileNameById(productId).orElseThrow(
+                () -> new ProductNotFoundException("Product with id "+productId+" not found")
+        );
+        fileStreamer.write(String.format("%s/%s", BucketName.PRODUCTS.getName(), productId), product.getFileName(), size, request, response);
+    }
+
     public List<String> downloadProductImage(String productId) throws ProductNotFoundException {
         Product product =  productRepository.findById(productId).orElseThrow(
                 () -> new ProductNotFoundException("Product with id "+productId+" not found")
         );
         List returnData = new ArrayList();
         try {
-            S3Object object = fileStore.download(
+            StoredFile object = fileStore.download(
                     String.format("%s/%s", BucketName.PRODUCTS.getName(), productId),
                     product.getFileName());
-            byte[] encoded = object == null ? new byte[0] : Base64.getEncoder().encode(IOUtils.toByteArray(object.getObjectContent()));
+            byte[] encoded = object == null ? new byte[0] : Base64.getEncoder().encode(fileStore.readAllBytes(object));
             returnData.add(new String(encoded, StandardCharsets.US_ASCII));
-            returnData.add(object == null ? "" : object.getObjectMetadata().getUserMetadata().get("content-type"));
+            returnData.add(object == null ? "" : object.getInfo().getContentType());
             return returnData;
         }catch (Exception e){
             throw new IllegalStateException(e);
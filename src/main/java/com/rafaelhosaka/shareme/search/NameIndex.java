@@ -0,0 +1,273 @@
+package com.rafaelhosaka.shareme.search;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * In memory index of names, answering case and accent insensitive "contains" queries.
+ * Names are normalized and split in trigrams, a query of three characters or more intersects the ids of its
+ * trigrams and checks the remaining candidates. Shorter queries match the prefix of the words of the names.
+ * Results are ranked exact name, name prefix, word prefix then anywhere in the name, shorter names first.
+ * While loading, {@link #load} never replaces nor brings back an entry put or removed meanwhile.
+ */
+public class NameIndex<T> {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SPACES = Pattern.compile("\\s+");
+    private static final int GRAM = 3;
+
+    private final Map<String, Entry<T>> entries = new HashMap<>();
+    private final Map<String, Set<String>> grams = new HashMap<>();
+    private final TreeMap<String, Set<String>> words = new TreeMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    //ids removed since the loading started, null when not loading
+    private Set<String> removedWhileLoading;
+
+    public void put(String id, String name, T value) {
+        Entry<T> entry = new Entry<>(id, normalize(name), value);
+        lock.writeLock().lock();
+        try {
+            link(entry);
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Entry<T> previous = entries.remove(id);
+            if(previous != null){
+                unlink(previous);
+            }
+            if(removedWhileLoading != null){
+                removedWhileLoading.add(id);
+            }
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void startLoading() {
+        lock.writeLock().lock();
+        try {
+            removedWhileLoading = new HashSet<>();
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Puts a value read before the live updates of the entry, so it is skipped when the entry
+     * was put or removed since the loading started.
+     */
+    public void load(String id, String name, T value) {
+        Entry<T> entry = new Entry<>(id, normalize(name), value);
+        lock.writeLock().lock();
+        try {
+            if(!entries.containsKey(id) && (removedWhileLoading == null || !removedWhileLoading.contains(id))){
+                link(entry);
+            }
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void finishLoading() {
+        lock.writeLock().lock();
+        try {
+            removedWhileLoading = null;
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Set<String> ids() {
+        lock.readLock().lock();
+        try {
+            return new HashSet<>(entries.keySet());
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            entries.clear();
+            grams.clear();
+            words.clear();
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public SearchResult<T> search(String query, int offset, int limit) {
+        List<Entry<T>> matches = match(normalize(query));
+        List<T> page = matches.stream()
+                .skip(Math.max(0, offset))
+                .limit(Math.max(0, limit))
+                .map(Entry::getValue)
+                .collect(Collectors.toList());
+        return new SearchResult<>(page, matches.size(), offset);
+    }
+
+    /**
+     * Every entry whose name contains the normalized text, ranked.
+     */
+    List<Entry<T>> match(String text) {
+        if(text.isEmpty()){
+            return new ArrayList<>();
+        }
+        List<Entry<T>> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (String id : candidates(text)) {
+                Entry<T> entry = entries.get(id);
+                if(entry != null && matches(entry.text, text)){
+                    matches.add(entry);
+                }
+            }
+        }finally {
+            lock.readLock().unlock();
+        }
+        matches.sort(Comparator
+                .comparingInt((Entry<T> entry) -> rank(entry.text, text))
+                .thenComparingInt(entry -> entry.text.length())
+                .thenComparing(entry -> entry.text)
+                .thenComparing(entry -> entry.id));
+        return matches;
+    }
+
+    static String normalize(String value) {
+        if(value == null){
+            return "";
+        }
+        String stripped = MARKS.matcher(Normalizer.normalize(value, Normalizer.Form.NFD)).replaceAll("");
+        return SPACES.matcher(stripped.toLowerCase(Locale.ROOT).trim()).replaceAll(" ");
+    }
+
+    private Collection<String> candidates(String text) {
+        if(text.length() < GRAM){
+            Set<String> ids = new HashSet<>();
+            words.subMap(text, true, text + Character.MAX_VALUE, true).values().forEach(ids::addAll);
+            return ids;
+        }
+        List<Set<String>> postings = new ArrayList<>();
+        for (String gram : gramsOf(text)) {
+            Set<String> ids = grams.get(gram);
+            if(ids == null){
+                return Collections.emptyList();
+            }
+            postings.add(ids);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+        Set<String> ids = new HashSet<>(postings.get(0));
+        for (int i = 1; i < postings.size() && !ids.isEmpty(); i++) {
+            ids.retainAll(postings.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Queries shorter than a trigram match the start of a word, longer ones anywhere in the name.
+     */
+    static boolean matches(String name, String text) {
+        if(text.length() < GRAM){
+            return name.startsWith(text) || name.contains(" " + text);
+        }
+        return name.contains(text);
+    }
+
+    /**
+     * Whether the matches of the longer query are all matches of the shorter one, its prefix.
+     */
+    static boolean narrows(String prefix, String text) {
+        return text.startsWith(prefix) && (prefix.length() < GRAM) == (text.length() < GRAM);
+    }
+
+    static int rank(String name, String text) {
+        if(name.equals(text)){
+            return 0;
+        }
+        if(name.startsWith(text)){
+            return 1;
+        }
+        if(name.contains(" " + text)){
+            return 2;
+        }
+        return 3;
+    }
+
+    private void link(Entry<T> entry) {
+        Entry<T> previous = entries.put(entry.id, entry);
+        if(previous != null){
+            unlink(previous);
+        }
+        gramsOf(entry.text).forEach(gram -> grams.computeIfAbsent(gram, g -> new HashSet<>()).add(entry.id));
+        wordsOf(entry.text).forEach(word -> words.computeIfAbsent(word, w -> new HashSet<>()).add(entry.id));
+    }
+
+    private void unlink(Entry<T> entry) {
+        gramsOf(entry.text).forEach(gram -> removePosting(grams, gram, entry.id));
+        wordsOf(entry.text).forEach(word -> removePosting(words, word, entry.id));
+    }
+
+    private static void removePosting(Map<String, Set<String>> postings, String key, String id) {
+        Set<String> ids = postings.get(key);
+        if(ids != null){
+            ids.remove(id);
+            if(ids.isEmpty()){
+                postings.remove(key);
+            }
+        }
+    }
+
+    private static Set<String> gramsOf(String text) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + GRAM <= text.length(); i++) {
+            result.add(text.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    private static Set<String> wordsOf(String text) {
+        return text.isEmpty() ? Collections.emptySet() : new HashSet<>(Arrays.asList(text.split(" ")));
+    }
+
+    static class Entry<T> {
+        private final String id;
+        private final String text;
+        private final T value;
+
+        private Entry(String id, String text, T value) {
+            this.id = id;
+            this.text = text;
+            this.value = value;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        T getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.rafaelhosaka.shareme.search;
+
+import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
+import com.rafaelhosaka.shareme.group.GroupSummary;
+import com.rafaelhosaka.shareme.user.UserSummary;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("api/search")
+public class SearchController {
+    private final SearchService searchService;
+    private final TypeaheadService typeaheadService;
+
+    @Autowired
+    public SearchController(SearchService searchService, TypeaheadService typeaheadService) {
+        this.searchService = searchService;
+        this.typeaheadService = typeaheadService;
+    }
+
+    @GetMapping("/users")
+    public ResponseEntity<SearchResult<UserSummary>> searchUsers(@RequestParam("query") String query,
+                                                                 @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                                                 @RequestParam(value = "size", defaultValue = "20") int size){
+        if(!searchService.isReady()){
+            return new ResponseEntity(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return ResponseEntity.ok(searchService.searchUsers(query, offset, size));
+    }
+
+    @GetMapping("/typeahead")
+    public ResponseEntity<List<UserSummary>> typeahead(@RequestParam("userId") String userId,
+                                                       @RequestParam("query") String query,
+                                                       @RequestParam(value = "limit", defaultValue = "0") int limit){
+        if(!searchService.isReady()){
+            return new ResponseEntity(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        try {
+            return ResponseEntity.ok(typeaheadService.typeahead(userId, query, limit));
+        }catch (UserProfileNotFoundException e){
+            return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND);
+        }
+    }
+
+    @GetMapping("/groups")
+    public ResponseEntity<SearchResult<GroupSummary>> searchGroups(@RequestParam("query") String query,
+                                                                   @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                                                   @RequestParam(value = "size", defaultValue = "20") int size){
+        if(!searchService.isReady()){
+            return new ResponseEntity(HttpStatus.SERVICE_UNAVAILABLE);
+        }
+        return ResponseEntity.ok(searchService.searchGroups(query, offset, size));
+    }
+}
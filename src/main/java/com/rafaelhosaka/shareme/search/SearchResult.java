@@ -0,0 +1,18 @@
+package com.rafaelhosaka.shareme.search;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SearchResult<T> {
+    private List<T> content;
+
+    private int total;
+
+    private int offset;
+}
@@ -0,0 +1,177 @@
+package com.rafaelhosaka.shareme.search;
+
+import com.rafaelhosaka.shareme.group.Group;
+import com.rafaelhosaka.shareme.group.GroupSummary;
+import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserProfileInvalidationChannel;
+import com.rafaelhosaka.shareme.user.UserProfileRepository;
+import com.rafaelhosaka.shareme.user.UserSummary;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name search over users and groups from in memory indexes. The indexes are loaded once the application
+ * is ready and kept up to date by the services writing users and groups; until they are loaded the searches
+ * fall back to the $regex queries. User changes made on other nodes are applied through the invalidation channel,
+ * groups are reloaded periodically since their changes are only applied on the node handling them.
+ */
+@Service
+@Slf4j
+@PropertySource("classpath:application.properties")
+public class SearchService {
+    private final NameIndex<UserSummary> users = new NameIndex<>();
+    private final NameIndex<GroupSummary> groups = new NameIndex<>();
+    private final MongoTemplate mongoTemplate;
+    private final UserProfileRepository userRepository;
+    private final int maxResults;
+    private final long groupsRefreshIntervalSeconds;
+    private volatile boolean ready = false;
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public SearchService(MongoTemplate mongoTemplate,
+                         UserProfileRepository userRepository,
+                         ObjectProvider<UserProfileInvalidationChannel> channel,
+                         Environment environment) {
+        this.mongoTemplate = mongoTemplate;
+        this.userRepository = userRepository;
+        this.maxResults = environment.getProperty("search.max-results", Integer.class, 50);
+        this.groupsRefreshIntervalSeconds = environment.getProperty("search.groups.refresh-interval-seconds", Long.class, 300L);
+        channel.ifAvailable(c -> c.subscribe(this::reindexUser));
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-groups-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshGroups, groupsRefreshIntervalSeconds, groupsRefreshIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        CompletableFuture.runAsync(this::build).exceptionally(e -> {
+            log.error("Exception : could not build the search index : {}", e.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * Loads the indexes, the changes applied while streaming win over the streamed values.
+     */
+    public void build() {
+        long start = System.currentTimeMillis();
+        users.startLoading();
+        groups.startLoading();
+        try {
+            Query userQuery = new Query();
+            userQuery.fields().include("id").include("firstName").include("lastName").include("fileName");
+            try (CloseableIterator<UserProfile> cursor = mongoTemplate.stream(userQuery, UserProfile.class)) {
+                cursor.forEachRemaining(user -> users.load(user.getId(), user.getFirstName() + " " + user.getLastName(), UserSummary.of(user)));
+            }
+            try (CloseableIterator<Group> cursor = mongoTemplate.stream(groupQuery(), Group.class)) {
+                cursor.forEachRemaining(group -> groups.load(group.getId(), group.getName(), GroupSummary.of(group)));
+            }
+        }finally {
+            users.finishLoading();
+            groups.finishLoading();
+        }
+        ready = true;
+        log.info("Indexed {} users and {} groups for search in {} ms", users.size(), groups.size(), System.currentTimeMillis() - start);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    public SearchResult<UserSummary> searchUsers(String query, int offset, int size) {
+        return users.search(query, offset, clamp(size));
+    }
+
+    public SearchResult<GroupSummary> searchGroups(String query, int offset, int size) {
+        return groups.search(query, offset, clamp(size));
+    }
+
+    List<NameIndex.Entry<UserSummary>> matchUsers(String text) {
+        return users.match(text);
+    }
+
+    public void indexUser(UserProfile user) {
+        users.put(user.getId(), user.getFirstName() + " " + user.getLastName(), UserSummary.of(user));
+    }
+
+    public void indexGroup(Group group) {
+        groups.put(group.getId(), group.getName(), GroupSummary.of(group));
+    }
+
+    /**
+     * Reloads the groups, picking up the groups created, renamed or deleted on other nodes.
+     */
+    void refreshGroups() {
+        if(!ready){
+            return;
+        }
+        try {
+            Set<String> deleted = groups.ids();
+            try (CloseableIterator<Group> cursor = mongoTemplate.stream(groupQuery(), Group.class)) {
+                cursor.forEachRemaining(group -> {
+                    indexGroup(group);
+                    deleted.remove(group.getId());
+                });
+            }
+            deleted.forEach(groups::remove);
+        }catch (Exception e){
+            log.error("Exception : could not refresh the groups search index : {}", e.getMessage());
+        }
+    }
+
+    private Query groupQuery() {
+        Query query = new Query();
+        query.fields().include("id").include("name").include("coverFileName");
+        return query;
+    }
+
+    /**
+     * Applies a change made on another node.
+     */
+    private void reindexUser(String userId) {
+        try {
+            userRepository.findById(userId).ifPresentOrElse(this::indexUser, () -> users.remove(userId));
+        }catch (Exception e){
+            log.error("Exception : could not reindex user {} : {}", userId, e.getMessage());
+        }
+    }
+
+    private int clamp(int size) {
+        return size <= 0 ? maxResults : Math.min(size, maxResults);
+    }
+}
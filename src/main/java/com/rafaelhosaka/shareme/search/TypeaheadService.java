@@ -0,0 +1,208 @@
+package com.rafaelhosaka.shareme.search;
+
+import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
+import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserProfileService;
+import com.rafaelhosaka.shareme.user.UserSummary;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Top results of the user search for a search box, friends of the caller first, then friends of friends.
+ * The ranked candidates are cached per caller and query for a few seconds: as the query grows one keystroke
+ * at a time, the candidates of the previous query are filtered instead of searching the index again.
+ */
+@Service
+@PropertySource("classpath:application.properties")
+public class TypeaheadService {
+    private static final int FRIEND = 0;
+    private static final int FRIEND_OF_FRIEND = 1;
+    private static final int OTHER = 2;
+
+    private final SearchService searchService;
+    private final UserProfileService userService;
+    private final MongoTemplate mongoTemplate;
+    private final int defaultLimit;
+    private final int maxLimit;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final int maxCandidates;
+    private final int maxCircleFriends;
+
+    private final LinkedHashMap<String, Candidates> candidates;
+    private final LinkedHashMap<String, Circle> circles;
+
+    @Autowired
+    public TypeaheadService(SearchService searchService,
+                           UserProfileService userService,
+                           MongoTemplate mongoTemplate,
+                           Environment environment) {
+        this.searchService = searchService;
+        this.userService = userService;
+        this.mongoTemplate = mongoTemplate;
+        this.defaultLimit = environment.getProperty("search.typeahead.limit", Integer.class, 8);
+        this.maxLimit = environment.getProperty("search.typeahead.max-limit", Integer.class, 20);
+        this.ttlMillis = environment.getProperty("search.typeahead.ttl-seconds", Long.class, 30L) * 1000;
+        this.maxEntries = environment.getProperty("search.typeahead.max-entries", Integer.class, 10000);
+        this.maxCandidates = environment.getProperty("search.typeahead.max-candidates", Integer.class, 2000);
+        this.maxCircleFriends = environment.getProperty("search.typeahead.max-circle-friends", Integer.class, 500);
+        this.candidates = boundedMap(maxEntries);
+        this.circles = boundedMap(maxEntries);
+    }
+
+    public List<UserSummary> typeahead(String userId, String query, int limit) throws UserProfileNotFoundException {
+        String text = NameIndex.normalize(query);
+        int size = limit <= 0 ? defaultLimit : Math.min(limit, maxLimit);
+        if(text.isEmpty()){
+            return new ArrayList<>();
+        }
+        return candidatesFor(userId, text).list.stream()
+                .limit(size)
+                .map(candidate -> candidate.user)
+                .collect(Collectors.toList());
+    }
+
+    private Candidates candidatesFor(String userId, String text) throws UserProfileNotFoundException {
+        long now = System.currentTimeMillis();
+        Candidates previous = null;
+        synchronized (this) {
+            for (int length = text.length(); length > 0 && NameIndex.narrows(text.substring(0, length), text); length--) {
+                Candidates cached = candidates.get(key(userId, text.substring(0, length)));
+                if(cached != null && cached.expiresAt > now && (length == text.length() || cached.complete)){
+                    previous = cached;
+                    break;
+                }
+            }
+        }
+        if(previous != null && previous.text.equals(text)){
+            return previous;
+        }
+
+        List<Candidate> list;
+        boolean complete;
+        if(previous != null){
+            //on the same side of the trigram threshold, every match of the query matches the previous, shorter one
+            list = previous.list.stream()
+                    .filter(candidate -> NameIndex.matches(candidate.text, text))
+                    .map(candidate -> new Candidate(candidate.user, candidate.text, candidate.tier, NameIndex.rank(candidate.text, text)))
+                    .collect(Collectors.toList());
+            complete = true;
+        }else{
+            Circle circle = circleOf(userId, now);
+            List<NameIndex.Entry<UserSummary>> matches = searchService.matchUsers(text);
+            list = matches.stream()
+                    .filter(entry -> !entry.getId().equals(userId))
+                    .map(entry -> new Candidate(entry.getValue(), entry.getText(), circle.tierOf(entry.getId()), NameIndex.rank(entry.getText(), text)))
+                    .collect(Collectors.toList());
+            complete = list.size() <= maxCandidates;
+        }
+        list.sort(Comparator
+                .comparingInt((Candidate candidate) -> candidate.tier)
+                .thenComparingInt(candidate -> candidate.rank)
+                .thenComparingInt(candidate -> candidate.text.length())
+                .thenComparing(candidate -> candidate.text));
+        if(list.size() > maxCandidates){
+            list = new ArrayList<>(list.subList(0, maxCandidates));
+        }
+
+        Candidates result = new Candidates(text, list, complete, now + ttlMillis);
+        synchronized (this) {
+            candidates.put(key(userId, text), result);
+        }
+        return result;
+    }
+
+    private Circle circleOf(String userId, long now) throws UserProfileNotFoundException {
+        synchronized (this) {
+            Circle cached = circles.get(userId);
+            if(cached != null && cached.expiresAt > now){
+                return cached;
+            }
+        }
+        UserProfile user = userService.getUserProfileById(userId);
+        Set<String> friends = new HashSet<>(user.getFriends());
+        Set<String> friendsOfFriends = new HashSet<>();
+        if(!friends.isEmpty()){
+            Query query = Query.query(Criteria.where("_id").in(ObjectIds.from(user.getFriends().stream()
+                    .limit(maxCircleFriends)
+                    .collect(Collectors.toList()))));
+            query.fields().include("friends");
+            mongoTemplate.find(query, UserProfile.class).forEach(friend -> friendsOfFriends.addAll(friend.getFriends()));
+            friendsOfFriends.removeAll(friends);
+        }
+        Circle circle = new Circle(friends, friendsOfFriends, now + ttlMillis);
+        synchronized (this) {
+            circles.put(userId, circle);
+        }
+        return circle;
+    }
+
+    private static String key(String userId, String text) {
+        return userId + "\t" + text;
+    }
+
+    private static <V> LinkedHashMap<String, V> boundedMap(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    private static class Candidate {
+        private final UserSummary user;
+        private final String text;
+        private final int tier;
+        private final int rank;
+
+        private Candidate(UserSummary user, String text, int tier, int rank) {
+            this.user = user;
+            this.text = text;
+            this.tier = tier;
+            this.rank = rank;
+        }
+    }
+
+    private static class Candidates {
+        private final String text;
+        private final List<Candidate> list;
+        private final boolean complete;
+        private final long expiresAt;
+
+        private Candidates(String text, List<Candidate> list, boolean complete, long expiresAt) {
+            this.text = text;
+            this.list = list;
+            this.complete = complete;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Circle {
+        private final Set<String> friends;
+        private final Set<String> friendsOfFriends;
+        private final long expiresAt;
+
+        private Circle(Set<String> friends, Set<String> friendsOfFriends, long expiresAt) {
+            this.friends = friends;
+            this.friendsOfFriends = friendsOfFriends;
+            this.expiresAt = expiresAt;
+        }
+
+        private int tierOf(String userId) {
+            if(friends.contains(userId)){
+                return FRIEND;
+            }
+            return friendsOfFriends.contains(userId) ? FRIEND_OF_FRIEND : OTHER;
+        }
+    }
+}
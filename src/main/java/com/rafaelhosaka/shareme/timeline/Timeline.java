@@ -0,0 +1,21 @@
+package com.rafaelhosaka.shareme.timeline;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Document
+public class Timeline {
+    @Id
+    private String id; //owner user id
+
+    private List<String> postIds = new ArrayList<>(); //newest first, capped
+}
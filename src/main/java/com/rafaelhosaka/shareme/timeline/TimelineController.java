@@ -0,0 +1,46 @@
+package com.rafaelhosaka.shareme.timeline;
+
+import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
+import com.rafaelhosaka.shareme.post.BasePost;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("api/timeline")
+@Slf4j
+public class TimelineController {
+    private final TimelineService timelineService;
+
+    @Autowired
+    public TimelineController(TimelineService timelineService) {
+        this.timelineService = timelineService;
+    }
+
+    @GetMapping("/{userId}")
+    public ResponseEntity<CursorPage<BasePost>> getTimeline(@PathVariable("userId") String userId,
+                                                            @RequestParam(value = "cursor", required = false) String cursor,
+                                                            @RequestParam(value = "size", defaultValue = "20") int size){
+        try {
+            return ResponseEntity.ok(timelineService.getTimeline(userId, cursor, size));
+        }catch (UserProfileNotFoundException e){
+            log.error("Exception : {}",e.getMessage());
+            return new ResponseEntity(e.getMessage(), HttpStatus.NOT_FOUND);
+        }catch (IllegalArgumentException e){
+            log.error("Exception : {}",e.getMessage());
+            return new ResponseEntity(e.getMessage(), HttpStatus.BAD_REQUEST);
+        }
+    }
+
+    @PostMapping("/rebuild")
+    public ResponseEntity rebuildAll(){
+        timelineService.rebuildAll().exceptionally(e -> {
+            log.error("Exception : timeline rebuild failed : {}", e.getMessage());
+            return 0;
+        });
+        return ResponseEntity.accepted().build();
+    }
+}
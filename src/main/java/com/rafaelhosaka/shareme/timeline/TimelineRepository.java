@@ -0,0 +1,6 @@
+package com.rafaelhosaka.shareme.timeline;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface TimelineRepository extends MongoRepository<Timeline, String> {
+}
@@ -0,0 +1,166 @@
+package com.rafaelhosaka.shareme.timeline;
+
+import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
+import com.rafaelhosaka.shareme.like.LikeService;
+import com.rafaelhosaka.shareme.pagination.Cursor;
+import com.rafaelhosaka.shareme.pagination.CursorPage;
+import com.rafaelhosaka.shareme.post.BasePost;
+import com.rafaelhosaka.shareme.post.PostRepository;
+import com.rafaelhosaka.shareme.post.PostService;
+import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserProfileRepository;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
+import com.rafaelhosaka.shareme.visibility.VisibilityType;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+@Service
+@Slf4j
+@PropertySource("classpath:application.properties")
+public class TimelineService {
+    private static final Comparator<BasePost> NEWEST_FIRST = Comparator
+            .comparing(BasePost::getDateCreated)
+            .thenComparing(BasePost::getId)
+            .reversed();
+
+    private final TimelineRepository timelineRepository;
+    private final PostRepository postRepository;
+    private final UserProfileRepository userRepository;
+    private final MongoTemplate mongoTemplate;
+    private final LikeService likeService;
+    private final int capacity;
+    private final int maxFanOutFriends;
+
+    @Autowired
+    public TimelineService(TimelineRepository timelineRepository,
+                           PostRepository postRepository,
+                           UserProfileRepository userRepository,
+                           MongoTemplate mongoTemplate,
+                           LikeService likeService,
+                           Environment environment) {
+        this.timelineRepository = timelineRepository;
+        this.postRepository = postRepository;
+        this.userRepository = userRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.likeService = likeService;
+        this.capacity = environment.getProperty("timeline.capacity", Integer.class, 500);
+        this.maxFanOutFriends = environment.getProperty("timeline.fanout.max-friends", Integer.class, 1000);
+    }
+
+    public void fanOut(BasePost post) {
+        if(post.getUser() == null || post.getVisibility() == null || post.getVisibility().getType() != VisibilityType.PUBLIC){
+            return;
+        }
+        try {
+            Optional<UserProfile> author = userRepository.findById(post.getUser().getId());
+            if(author.isEmpty() || isLargeAccount(author.get())){
+                return;
+            }
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Timeline.class);
+            for (String followerId : followersOf(author.get())) {
+                bulk.upsert(
+                        Query.query(Criteria.where("id").is(followerId)),
+                        new Update().push("postIds").atPosition(0).slice(capacity).each(post.getId()));
+            }
+            bulk.execute();
+        }catch (Exception e){
+            log.error("Exception : fan out of post {} failed : {}", post.getId(), e.getMessage());
+        }
+    }
+
+    public CursorPage<BasePost> getTimeline(String userId, String cursor, int size) throws UserProfileNotFoundException, IllegalArgumentException {
+        UserProfile user = userRepository.findById(userId).orElseThrow(
+                () -> new UserProfileNotFoundException("User with ID "+userId+" not found")
+        );
+        int pageSize = CursorPage.clampSize(size);
+        Pageable pageable = PageRequest.of(0, pageSize + 1, PostService.NEWEST_FIRST);
+        Cursor after = cursor == null || cursor.isEmpty() ? null : Cursor.decode(cursor);
+
+        List<ObjectId> postIds = timelineRepository.findById(userId)
+                .map(timeline -> ObjectIds.from(timeline.getPostIds()))
+                .orElse(Collections.emptyList());
+        List<BasePost> posts = new ArrayList<>();
+        if(!postIds.isEmpty()){
+            posts.addAll(after == null
+                    ? postRepository.getPostsByIds(postIds, pageable)
+                    : postRepository.getPostsByIdsBefore(postIds, after.getDate(), ObjectIds.from(after.getId()), pageable));
+        }
+
+        List<ObjectId> largeAccounts = ObjectIds.from(findLargeAccounts(followersOf(user)));
+        if(!largeAccounts.isEmpty()){
+            posts.addAll(after == null
+                    ? postRepository.getPublicPostsByUsersIds(largeAccounts, pageable)
+                    : postRepository.getPublicPostsByUsersIdsBefore(largeAccounts, after.getDate(), ObjectIds.from(after.getId()), pageable));
+        }
+
+        Map<String, BasePost> merged = new LinkedHashMap<>();
+        posts.stream().sorted(NEWEST_FIRST).forEach(post -> merged.putIfAbsent(post.getId(), post));
+        List<BasePost> page = merged.values().stream().limit(pageSize + 1).collect(Collectors.toList());
+        CursorPage<BasePost> timeline = CursorPage.of(page, pageSize, post -> new Cursor(post.getDateCreated(), post.getId()));
+        likeService.withPostsLikeState(userId, timeline.getContent());
+        return timeline;
+    }
+
+    public void rebuild(UserProfile user) {
+        Query query = new Query(Criteria.where("user.$id").in(ObjectIds.from(followersOf(user)))
+                .and("visibility.type").is(VisibilityType.PUBLIC))
+                .with(PageRequest.of(0, capacity, PostService.NEWEST_FIRST));
+        query.fields().include("id");
+        List<String> postIds = mongoTemplate.find(query, BasePost.class).stream()
+                .map(BasePost::getId)
+                .collect(Collectors.toList());
+        timelineRepository.save(new Timeline(user.getId(), postIds));
+    }
+
+    public CompletableFuture<Integer> rebuildAll() {
+        return CompletableFuture.supplyAsync(() -> {
+            int rebuilt = 0;
+            Query query = new Query();
+            query.fields().include("id").include("friends");
+            try (CloseableIterator<UserProfile> users = mongoTemplate.stream(query, UserProfile.class)) {
+                while (users.hasNext()) {
+                    rebuild(users.next());
+                    rebuilt++;
+                }
+            }
+            log.info("Rebuilt {} timelines", rebuilt);
+            return rebuilt;
+        });
+    }
+
+    private boolean isLargeAccount(UserProfile user) {
+        return user.getFriends().size() > maxFanOutFriends;
+    }
+
+    private List<String> followersOf(UserProfile user) {
+        List<String> followers = new ArrayList<>(user.getFriends());
+        followers.add(user.getId());
+        return followers;
+    }
+
+    private List<String> findLargeAccounts(List<String> usersIds) {
+        //covered by the friend count index
+        Query query = new Query(Criteria.where("friendCount").gt(maxFanOutFriends)
+                .and("id").in(ObjectIds.from(usersIds)));
+        query.fields().include("id");
+        return mongoTemplate.find(query, UserProfile.class).stream()
+                .map(UserProfile::getId)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,157 @@
+package com.rafaelhosaka.shareme.unread;
+
+import com.rafaelhosaka.shareme.chat.Chat;
+import com.rafaelhosaka.shareme.notification.Notification;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unread chats and notifications of the active users, counted once from the database then kept up to date
+ * by the writes and pushed to /user/{id}/unread on every change. The counters are periodically reconciled
+ * with the database, which corrects the drift of concurrent writes, and dropped once idle.
+ */
+@Service
+@Slf4j
+@PropertySource("classpath:application.properties")
+public class UnreadCounterService {
+    public static final String DESTINATION = "/unread";
+
+    private final MongoTemplate mongoTemplate;
+    private final SimpMessagingTemplate simpMessagingTemplate;
+    private final long reconcileIntervalSeconds;
+    private final long idleMillis;
+
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+
+    @Autowired
+    public UnreadCounterService(MongoTemplate mongoTemplate, SimpMessagingTemplate simpMessagingTemplate, Environment environment) {
+        this.mongoTemplate = mongoTemplate;
+        this.simpMessagingTemplate = simpMessagingTemplate;
+        this.reconcileIntervalSeconds = environment.getProperty("unread.reconcile-interval-seconds", Long.class, 60L);
+        this.idleMillis = environment.getProperty("unread.idle-seconds", Long.class, 600L) * 1000;
+    }
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "unread-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reconcile, reconcileIntervalSeconds, reconcileIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    public UnreadCounts getCounts(String userId) {
+        Counters current = counters.get(userId);
+        if(current == null){
+            current = counters.computeIfAbsent(userId, id -> new Counters(countChats(id), countNotifications(id)));
+        }
+        return current.get();
+    }
+
+    public int getUnreadChats(String userId) {
+        return getCounts(userId).getChats();
+    }
+
+    public int getUnreadNotifications(String userId) {
+        return getCounts(userId).getNotifications();
+    }
+
+    public void chatsChanged(String userId, int delta) {
+        Counters current = counters.get(userId);
+        if(current != null && delta != 0){
+            push(userId, current.add(delta, 0));
+        }
+    }
+
+    public void notificationsChanged(String userId, int delta) {
+        Counters current = counters.get(userId);
+        if(current != null && delta != 0){
+            push(userId, current.add(0, delta));
+        }
+    }
+
+    public void reconcile() {
+        long now = System.currentTimeMillis();
+        counters.forEach((userId, current) -> {
+            try {
+                if(now - current.lastAccess > idleMillis){
+                    counters.remove(userId, current);
+                    return;
+                }
+                UnreadCounts counted = new UnreadCounts(countChats(userId), countNotifications(userId));
+                if(current.reset(counted)){
+                    push(userId, counted);
+                }
+            }catch (Exception e){
+                log.error("Exception : could not reconcile unread counts of user {} : {}", userId, e.getMessage());
+            }
+        });
+    }
+
+    private void push(String userId, UnreadCounts counts) {
+        try {
+            simpMessagingTemplate.convertAndSendToUser(userId, DESTINATION, counts);
+        }catch (Exception e){
+            log.error("Exception : could not push unread counts to user {} : {}", userId, e.getMessage());
+        }
+    }
+
+    private int countChats(String userId) {
+        return (int) mongoTemplate.count(Query.query(Criteria.where("ownerId").is(userId).and("unreadCount").gt(0)), Chat.class);
+    }
+
+    private int countNotifications(String userId) {
+        return (int) mongoTemplate.count(Query.query(Criteria.where("ownerUserId").is(userId).and("read").is(false)), Notification.class);
+    }
+
+    private static class Counters {
+        private int chats;
+        private int notifications;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private Counters(int chats, int notifications) {
+            this.chats = chats;
+            this.notifications = notifications;
+        }
+
+        private synchronized UnreadCounts get() {
+            lastAccess = System.currentTimeMillis();
+            return new UnreadCounts(chats, notifications);
+        }
+
+        private synchronized UnreadCounts add(int chatsDelta, int notificationsDelta) {
+            chats = Math.max(0, chats + chatsDelta);
+            notifications = Math.max(0, notifications + notificationsDelta);
+            return new UnreadCounts(chats, notifications);
+        }
+
+        private synchronized boolean reset(UnreadCounts counted) {
+            boolean changed = chats != counted.getChats() || notifications != counted.getNotifications();
+            chats = counted.getChats();
+            notifications = counted.getNotifications();
+            return changed;
+        }
+    }
+}
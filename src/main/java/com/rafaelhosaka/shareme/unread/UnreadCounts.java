@@ -0,0 +1,14 @@
+package com.rafaelhosaka.shareme.unread;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UnreadCounts {
+    private int chats;
+
+    private int notifications;
+}
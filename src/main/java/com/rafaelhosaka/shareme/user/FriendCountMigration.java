@@ -0,0 +1,55 @@
+package com.rafaelhosaka.shareme.user;
+
+import com.rafaelhosaka.shareme.config.Migrations;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sets the friend count of the users saved before it existed, with one pipeline update, once.
+ */
+@Component
+@Slf4j
+public class FriendCountMigration {
+    private static final String MIGRATION = "user-friend-count";
+
+    private final MongoTemplate mongoTemplate;
+    private final Migrations migrations;
+
+    @Autowired
+    public FriendCountMigration(MongoTemplate mongoTemplate, Migrations migrations) {
+        this.mongoTemplate = mongoTemplate;
+        this.migrations = migrations;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateOnStartup() {
+        CompletableFuture.runAsync(this::migrate);
+    }
+
+    public void migrate() {
+        try {
+            if(migrations.isDone(MIGRATION)){
+                return;
+            }
+            long migrated = mongoTemplate.getCollection(mongoTemplate.getCollectionName(UserProfile.class)).updateMany(
+                    new Document("friendCount", new Document("$exists", false)),
+                    List.of(new Document("$set", new Document("friendCount",
+                            new Document("$size", new Document("$ifNull", List.of("$friends", List.of())))))))
+                    .getModifiedCount();
+            if(migrated > 0){
+                log.info("Set the friend count of {} users", migrated);
+            }
+            migrations.markDone(MIGRATION);
+        }catch (Exception e){
+            log.error("Exception : could not migrate friend counts : {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.rafaelhosaka.shareme.user;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserCacheStats {
+    private long hits;
+    private long misses;
+    private double hitRatio;
+    private long evictions;
+    private long invalidations;
+    private long entries;
+    private long maxEntries;
+}
@@ -0,0 +1,38 @@
+package com.rafaelhosaka.shareme.user;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+/**
+ * A user as shown in the search results and the friend lists, read with a projection instead of the whole profile.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserListItem {
+    @Id
+    private String id;
+
+    private String firstName;
+
+    private String lastName;
+
+    private String email;
+
+    private String fileName;
+
+    private String coverFileName;
+
+    private Gender gender;
+
+    private boolean connected;
+
+    private boolean online;
+
+    public static UserListItem of(UserProfile user) {
+        return new UserListItem(user.getId(), user.getFirstName(), user.getLastName(), user.getEmail(), user.getFileName(),
+                user.getCoverFileName(), user.getGender(), user.isConnected(), user.isOnline());
+    }
+}
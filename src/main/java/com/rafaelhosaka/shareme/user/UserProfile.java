@@ -2,9 +2,11 @@ package com.rafaelhosaka.shareme.user;
 
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.rafaelhosaka.shareme.filestore.UploadStatus;
 import com.rafaelhosaka.shareme.post.Post;
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.DBRef;
 import org.springframework.data.mongodb.core.mapping.Document;
@@ -21,6 +23,8 @@ import java.util.UUID;
 @Document
 @NoArgsConstructor
 @AllArgsConstructor
+//finds the accounts with too many friends to fan out from the index alone
+@CompoundIndex(name = "user_friend_count_idx", def = "{'friendCount': 1, '_id': 1}")
 public class UserProfile {
 
     @Id
@@ -39,10 +43,17 @@ public class UserProfile {
 
     private String coverFileName;
 
+    private UploadStatus fileUploadStatus;
+
+    private UploadStatus coverUploadStatus;
+
     private Gender gender;
 
     private List<String> friends = new ArrayList<>();
 
+    //size of friends, set on every save
+    private int friendCount;
+
     private ThemePreference themePreference;
 
     private LanguagePreference languagePreference;
@@ -0,0 +1,188 @@
+package com.rafaelhosaka.shareme.user;
+
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of user profiles by id and by email, evicted least recently used past the size limit and after a time to live.
+ * Callers receive copies, so changing a returned profile never changes the cached one.
+ * A profile read from the database is only cached when its user was not invalidated since the read started,
+ * so a read overlapping an update cannot put the previous profile back. The invalidations are remembered per id
+ * for a time to live, reads taking longer are not cached.
+ */
+@Component
+@PropertySource("classpath:application.properties")
+public class UserProfileCache {
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final UserProfileInvalidationChannel channel;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private final Map<String, String> idsByEmail = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    //time of the recent invalidations by id, oldest first, guarded by this
+    private final LinkedHashMap<String, Long> invalidatedAt = new LinkedHashMap<>();
+
+    @Autowired
+    public UserProfileCache(Environment environment, ObjectProvider<UserProfileInvalidationChannel> channel) {
+        this.ttlMillis = environment.getProperty("user.cache.ttl-seconds", Long.class, 60L) * 1000;
+        this.maxEntries = environment.getProperty("user.cache.max-entries", Integer.class, 10000);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if(size() <= maxEntries){
+                    return false;
+                }
+                idsByEmail.remove(eldest.getValue().user.getEmail(), eldest.getKey());
+                evictions.incrementAndGet();
+                return true;
+            }
+        };
+        this.channel = channel.getIfAvailable();
+        if(this.channel != null){
+            this.channel.subscribe(this::evict);
+        }
+    }
+
+    public Optional<UserProfile> getById(String id) {
+        return Optional.ofNullable(copy(lookup(id)));
+    }
+
+    public Optional<UserProfile> getByEmail(String email) {
+        String id;
+        synchronized (this) {
+            id = idsByEmail.get(email);
+        }
+        return Optional.ofNullable(copy(lookup(id)));
+    }
+
+    /**
+     * To call before loading a profile, and to give back to {@link #put(UserProfile, long)}.
+     */
+    public long startLoad() {
+        return System.nanoTime();
+    }
+
+    public void put(UserProfile user, long loadStartedAt) {
+        if(user == null || user.getId() == null){
+            return;
+        }
+        UserProfile copy = copy(user);
+        synchronized (this) {
+            long now = System.nanoTime();
+            if(now - loadStartedAt > ttlNanos()){
+                //older than the invalidations remembered
+                return;
+            }
+            Long invalidated = invalidatedAt.get(user.getId());
+            if(invalidated != null && invalidated - loadStartedAt >= 0){
+                //invalidated while loading, may be outdated
+                return;
+            }
+            Entry previous = entries.put(user.getId(), new Entry(copy, System.currentTimeMillis() + ttlMillis));
+            if(previous != null){
+                idsByEmail.remove(previous.user.getEmail(), user.getId());
+            }
+            if(user.getEmail() != null){
+                idsByEmail.put(user.getEmail(), user.getId());
+            }
+        }
+    }
+
+    /**
+     * Removes the user on this node and, when a channel is configured, on the other nodes.
+     */
+    public void invalidate(String id) {
+        evict(id);
+        if(channel != null){
+            channel.publish(id);
+        }
+    }
+
+    public synchronized UserCacheStats getStats() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return new UserCacheStats(
+                hitCount,
+                misses.get(),
+                total == 0 ? 0 : (double) hitCount / total,
+                evictions.get(),
+                invalidations.get(),
+                entries.size(),
+                maxEntries);
+    }
+
+    private UserProfile lookup(String id) {
+        if(id == null){
+            misses.incrementAndGet();
+            return null;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(id);
+            if(entry != null && entry.expiresAt < System.currentTimeMillis()){
+                entries.remove(id);
+                idsByEmail.remove(entry.user.getEmail(), id);
+                entry = null;
+            }
+            if(entry == null){
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return entry.user;
+        }
+    }
+
+    private synchronized void evict(String id) {
+        long now = System.nanoTime();
+        invalidatedAt.remove(id);
+        invalidatedAt.put(id, now);
+        Iterator<Long> oldest = invalidatedAt.values().iterator();
+        while (oldest.hasNext() && now - oldest.next() > ttlNanos()) {
+            oldest.remove();
+        }
+        Entry entry = entries.remove(id);
+        if(entry != null){
+            idsByEmail.remove(entry.user.getEmail(), id);
+            invalidations.incrementAndGet();
+        }
+    }
+
+    private long ttlNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    private UserProfile copy(UserProfile user) {
+        if(user == null){
+            return null;
+        }
+        UserProfile copy = new UserProfile();
+        BeanUtils.copyProperties(user, copy);
+        if(user.getFriends() != null){
+            copy.setFriends(new ArrayList<>(user.getFriends()));
+        }
+        return copy;
+    }
+
+    private static class Entry {
+        private final UserProfile user;
+        private final long expiresAt;
+
+        private Entry(UserProfile user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -12,6 +12,9 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.net.URI;
 import java.util.Base64;
 import java.util.List;
@@ -36,7 +39,7 @@ public class UserProfileController {
     }
 
     @GetMapping("/search/name")
-    public ResponseEntity<List<UserProfile>> searchUsersContainsName(@RequestParam("query") String searchedName) {
+    public ResponseEntity<List<UserListItem>> searchUsersContainsName(@RequestParam("query") String searchedName) {
         return ResponseEntity.ok(userService.searchUsersContainsName(searchedName));
     }
 
@@ -94,6 +97,30 @@ public class UserProfileController {
         }
     }
 
+    @GetMapping("/image/{id}")
+    public void streamProfileImage(@PathVariable("id") String id,
+                                   @RequestParam(value = "size", required = false) Integer size,
+                                   HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            userService.streamProfileImage(id, size, request, response);
+        }catch (UserProfileNotFoundException e){
+            log.error("Exception : {}",e.getMessage());
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+        }
+    }
+
+    @GetMapping("/coverImage/{id}")
+    public void streamCoverImage(@PathVariable("id") String id,
+                                 @RequestParam(value = "size", required = false) Integer size,
+                                 HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            userService.streamCoverImage(id, size, request, response);
+        }catch (UserProfileNotFoundException e){
+            log.error("Exception : {}",e.getMessage());
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, e.getMessage());
+        }
+    }
+
     @PutMapping(
             path = "/upload",
             consumes = {MediaType.MULTIPART_FORM_DATA_VALUE}
@@ -120,13 +147,27 @@ public class UserProfileController {
         }
     }
 
+    @GetMapping("/cache/stats")
+    public ResponseEntity<UserCacheStats> getCacheStats(){
+        return ResponseEntity.ok(userService.getCacheStats());
+    }
+
+    @PostMapping("/summaries/refresh")
+    public ResponseEntity refreshAllSummaries(){
+        userService.refreshAllSummaries().exceptionally(e -> {
+            log.error("Exception : summary refresh failed : {}", e.getMessage());
+            return 0;
+        });
+        return ResponseEntity.accepted().build();
+    }
+
     @PostMapping("getUsersFromIds")
-    public ResponseEntity<List<UserProfile>> getUsersFromIds(@RequestBody List<String> ids){
+    public ResponseEntity<List<UserListItem>> getUsersFromIds(@RequestBody List<String> ids){
         return ResponseEntity.ok(userService.getUserProfileFromIds(ids));
     }
 
     @GetMapping("/{id}/getUserFriend")
-    public ResponseEntity<List<UserProfile>> getUserFriends(@PathVariable("id") String id){
+    public ResponseEntity<List<UserListItem>> getUserFriends(@PathVariable("id") String id){
         try {
             return ResponseEntity.ok(userService.getUserFriends(id));
         } catch (UserProfileNotFoundException e) {
@@ -0,0 +1,15 @@
+package com.rafaelhosaka.shareme.user;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries user cache invalidations between nodes. Declare a bean implementing it (backed by a message broker,
+ * a capped collection, ...) to keep the caches of several instances consistent; without one the cache is local
+ * and a change made on another node shows up once the entry expires.
+ */
+public interface UserProfileInvalidationChannel {
+
+    void publish(String userId);
+
+    void subscribe(Consumer<String> listener);
+}
@@ -14,4 +14,7 @@ public interface UserProfileRepository extends MongoRepository<UserProfile, Stri
     @Query("{'$or': [ {'firstName' : { $regex: ?0, $options: 'i'  }}, {'lastName' : { $regex: ?0, $options: 'i'  }} ]}")
     List<UserProfile> searchUsersContainsName(String name);
 
+    @Query(value = "{ '_id' : ?0 }", fields = "{ 'fileName' : 1, 'coverFileName' : 1 }")
+    Optional<UserProfile> getFileNamesById(String id);
+
 }
@@ -1,31 +1,69 @@
 package com.rafaelhosaka.shareme.user;
 
-import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.util.IOUtils;
 import com.rafaelhosaka.shareme.bucket.BucketName;
 import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
 import com.rafaelhosaka.shareme.filestore.FileStore;
+import com.rafaelhosaka.shareme.filestore.FileStreamer;
+import com.rafaelhosaka.shareme.filestore.ImageDerivativeService;
+import com.rafaelhosaka.shareme.filestore.StoredFile;
+import com.rafaelhosaka.shareme.filestore.UploadStatus;
+import com.rafaelhosaka.shareme.filestore.UploadTracker;
+import com.rafaelhosaka.shareme.search.SearchService;
 import com.rafaelhosaka.shareme.post.Post;
 import com.rafaelhosaka.shareme.utils.Format;
+import com.rafaelhosaka.shareme.utils.ObjectIds;
 import com.rafaelhosaka.shareme.utils.Validator;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 @Service
 public class UserProfileService {
+    private static final int LOOKUP_CHUNK_SIZE = 500;
+
     private UserProfileRepository userRepository;
     private FileStore fileStore;
+    private FileStreamer fileStreamer;
+    private UploadTracker uploadTracker;
+    private ImageDerivativeService imageDerivativeService;
+    private UserProfileCache userCache;
+    private UserSummaryDenormalizer summaryDenormalizer;
+    private SearchService searchService;
+    private MongoTemplate mongoTemplate;
 
     @Autowired
-    public UserProfileService(UserProfileRepository userRepository, FileStore fileStore) {
+    public UserProfileService(UserProfileRepository userRepository,
+                              FileStore fileStore,
+                              FileStreamer fileStreamer,
+                              UploadTracker uploadTracker,
+                              ImageDerivativeService imageDerivativeService,
+                              UserProfileCache userCache,
+                              UserSummaryDenormalizer summaryDenormalizer,
+                              SearchService searchService,
+                              MongoTemplate mongoTemplate) {
         this.userRepository = userRepository;
         this.fileStore = fileStore;
+        this.fileStreamer = fileStreamer;
+        this.uploadTracker = uploadTracker;
+        this.imageDerivativeService = imageDerivativeService;
+        this.userCache = userCache;
+        this.summaryDenormalizer = summaryDenormalizer;
+        this.searchService = searchService;
+        this.mongoTemplate = mongoTemplate;
     }
 
     public List<UserProfile> getUserProfiles(){
@@ -33,17 +71,39 @@ public class UserProfileService {
     }
 
     public UserProfile getUserProfileByEmail(String email) throws UserProfileNotFoundException {
-        return userRepository.findUserProfileByEmail(email).orElseThrow(
+        Optional<UserProfile> cached = userCache.getByEmail(email);
+        if(cached.isPresent()){
+            return cached.get();
+        }
+        long loadStartedAt = userCache.startLoad();
+        UserProfile user = userRepository.findUserProfileByEmail(email).orElseThrow(
                 () ->  new UserProfileNotFoundException("User with email "+email+" not found")
         );
+        userCache.put(user, loadStartedAt);
+        return user;
     }
 
     public UserProfile getUserProfileById(String id) throws UserProfileNotFoundException {
-        return userRepository.findById(id).orElseThrow(
+        return findCachedById(id).orElseThrow(
                 () -> new UserProfileNotFoundException("User with ID "+id+" not found")
         );
     }
 
+    public UserCacheStats getCacheStats() {
+        return userCache.getStats();
+    }
+
+    private Optional<UserProfile> findCachedById(String id) {
+        Optional<UserProfile> cached = userCache.getById(id);
+        if(cached.isPresent()){
+            return cached;
+        }
+        long loadStartedAt = userCache.startLoad();
+        Optional<UserProfile> user = userRepository.findById(id);
+        user.ifPresent(found -> userCache.put(found, loadStartedAt));
+        return user;
+    }
+
     public UserProfile save(UserProfile userProfile) throws IllegalStateException {
 
         if(userRepository.findUserProfileByEmail(userProfile.getEmail()).isPresent()){
@@ -67,17 +127,35 @@ public class UserProfileService {
         }
 
         userProfile.setThemePreference(ThemePreference.DEVICE);
+        userProfile.setFriendCount(userProfile.getFriends() == null ? 0 : userProfile.getFriends().size());
 
-        return userRepository.save(userProfile);
+        UserProfile saved = userRepository.save(userProfile);
+        userCache.invalidate(saved.getId());
+        searchService.indexUser(saved);
+        return saved;
 
     }
 
     public UserProfile update(UserProfile userProfile){
-        return userRepository.save(userProfile);
+        Optional<UserSummary> previous = userProfile.getId() == null
+                ? Optional.empty()
+                : findCachedById(userProfile.getId()).map(UserSummary::of);
+        userProfile.setFriendCount(userProfile.getFriends() == null ? 0 : userProfile.getFriends().size());
+        UserProfile saved = uploadTracker.update(userProfile, "fileUploadStatus", "coverUploadStatus");
+        userCache.invalidate(saved.getId());
+        searchService.indexUser(saved);
+        if(previous.isPresent() && !previous.get().equals(UserSummary.of(saved))){
+            summaryDenormalizer.refreshAsync(saved);
+        }
+        return saved;
+    }
+
+    public CompletableFuture<Integer> refreshAllSummaries() {
+        return summaryDenormalizer.refreshAll();
     }
 
     public UserProfile findById(String userId) throws UserProfileNotFoundException {
-        return userRepository.findById(userId).orElseThrow(
+        return findCachedById(userId).orElseThrow(
                 () ->  new UserProfileNotFoundException("User with ID "+userId+" not found")
         );
     }
@@ -87,12 +165,12 @@ public class UserProfileService {
         List returnData = new ArrayList();
 
         try{
-            S3Object object = fileStore.download(
+            StoredFile object = fileStore.download(
                     String.format("%s/%s", BucketName.USERS.getName(), userId) ,
                     user.getFileName());
-            byte[] encoded = object == null ? new byte[0] : Base64.getEncoder().encode(IOUtils.toByteArray(object.getObjectContent()));
+            byte[] encoded = object == null ? new byte[0] : Base64.getEncoder().encode(fileStore.readAllBytes(object));
             returnData.add(new String(encoded, StandardCharsets.US_ASCII));
-            returnData.add(object == null ? "" : object.getObjectMetadata().getUserMetadata().get("content-type"));
+            returnData.add(object == null ? "" : object.getInfo().getContentType());
             return returnData;
          }catch (Exception e){
             throw new IllegalStateException(e);
@@ -104,18 +182,32 @@ public class UserProfileService {
         List returnData = new ArrayList();
 
         try{
-         S3Object object  = fileStore.download(
+         StoredFile object  = fileStore.download(
                 String.format("%s/%s", BucketName.USERS.getName(), userId) ,
                 user.getCoverFileName());
-        byte[] encoded = object == null ? new byte[0] : Base64.getEncoder().encode(IOUtils.toByteArray(object.getObjectContent()));
+        byte[] encoded = object == null ? new byte[0] : Base64.getEncoder().encode(fileStore.readAllBytes(object));
         returnData.add(new String(encoded, StandardCharsets.US_ASCII));
-        returnData.add(object == null ? "" : object.getObjectMetadata().getUserMetadata().get("content-type"));
+        returnData.add(object == null ? "" : object.getInfo().getContentType());
         return returnData;
     }catch (Exception e){
         throw new IllegalStateException(e);
     }
     }
 
+    public void streamProfileImage(String userId, Integer size, HttpServletRequest request, HttpServletResponse response) throws UserProfileNotFoundException, IOException {
+        UserProfile user = userRepository.getFileNamesById(userId).orElseThrow(
+                () -> new UserProfileNotFoundException("User with ID "+userId+" not found")
+        );
+        fileStreamer.write(String.format("%s/%s", BucketName.USERS.getName(), userId), user.getFileName(), size, request, response);
+    }
+
+    public void streamCoverImage(String userId, Integer size, HttpServletRequest request, HttpServletResponse response) throws UserProfileNotFoundException, IOException {
+        UserProfile user = userRepository.getFileNamesById(userId).orElseThrow(
+                () -> new UserProfileNotFoundException("User with ID "+userId+" not found")
+        );
+        fileStreamer.write(String.format("%s/%s", BucketName.USERS.getName(), userId), user.getCoverFileName(), size, request, response);
+    }
+
     public UserProfile uploadCoverImage(String userId, MultipartFile file) throws UserProfileNotFoundException {
         UserProfile user = userRepository.findById(userId).orElseThrow(
                 () -> new UserProfileNotFoundException("User with ID "+userId+" not found")
@@ -123,8 +215,10 @@ public class UserProfileService {
         try {
             String fileName =  String.format("%s-%s", file.getOriginalFilename(), UUID.randomUUID());
             user.setCoverFileName(fileName);
-            userRepository.save(user);
-            upload(user,fileName, file);
+            user.setCoverUploadStatus(UploadStatus.PENDING);
+            uploadTracker.pending(UserProfile.class, userId, "coverFileName", fileName, "coverUploadStatus");
+            userCache.invalidate(userId);
+            upload(user, "coverFileName", fileName, "coverUploadStatus", file);
         }catch (Exception e){
             e.printStackTrace();
         }
@@ -138,71 +232,88 @@ public class UserProfileService {
         try {
             String fileName =  String.format("%s-%s", file.getOriginalFilename(), UUID.randomUUID());
             user.setFileName(fileName);
-            userRepository.save(user);
-            upload(user,fileName, file);
+            user.setFileUploadStatus(UploadStatus.PENDING);
+            uploadTracker.pending(UserProfile.class, userId, "fileName", fileName, "fileUploadStatus");
+            userCache.invalidate(userId);
+            searchService.indexUser(user);
+            summaryDenormalizer.refreshAsync(user);
+            upload(user, "fileName", fileName, "fileUploadStatus", file);
         }catch (Exception e){
             e.printStackTrace();
         }
         return user;
     }
 
-    public void upload(UserProfile user, String fileName, MultipartFile file) throws IOException {
-        fileStore.upload(
-                String.format("%s/%s", BucketName.USERS.getName(), user.getId()),
-                fileName,
-                Optional.of(fileStore.getMetadata(file)),
-                file.getInputStream());
+    public void upload(UserProfile user, String fileNameField, String fileName, String statusField, MultipartFile file) throws IOException {
+        String path = String.format("%s/%s", BucketName.USERS.getName(), user.getId());
+        CompletableFuture<Void> upload = fileStore.uploadAsync(path, fileName, file);
+        uploadTracker.track(upload, UserProfile.class, user.getId(), fileNameField, fileName, statusField)
+                .whenComplete((result, e) -> userCache.invalidate(user.getId()));
+        imageDerivativeService.generateAfter(upload, path, fileName, file.getContentType());
     }
 
-    public List<UserProfile> searchUsersContainsName(String searchedName) {
+    public List<UserListItem> searchUsersContainsName(String searchedName) {
+        if(searchService.isReady()){
+            return getSummariesInOrder(searchService.searchUsers(searchedName, 0, searchService.getMaxResults()).getContent().stream()
+                    .map(UserSummary::getId)
+                    .collect(Collectors.toList()));
+        }
         try {
-            return userRepository.searchUsersContainsName(Format.escapeMetaCharacters(searchedName));
+            return userRepository.searchUsersContainsName(Format.escapeMetaCharacters(searchedName)).stream()
+                    .map(UserListItem::of)
+                    .collect(Collectors.toList());
         }catch(Exception e){
             e.printStackTrace();
             return null;
         }
     }
 
-    public List<UserProfile> getUserProfileFromIds(List<String> ids) {
-        List users = new ArrayList();
+    public List<UserListItem> getUserProfileFromIds(List<String> ids) {
+        return getSummariesInOrder(ids);
+    }
 
-        for (String id: ids) {
-            Optional user = userRepository.findById(id);
-            if(user.isPresent()){
-                users.add(user);
-            }
+    /**
+     * Loads the users with one $in query per chunk of ids, limited to the fields needed to render them,
+     * and returns them in the requested order. Unknown ids are skipped.
+     */
+    private List<UserListItem> getSummariesInOrder(Collection<String> ids) {
+        List<String> distinctIds = new ArrayList<>(new LinkedHashSet<>(ids));
+        Map<String, UserListItem> usersById = new HashMap<>();
+        for (int from = 0; from < distinctIds.size(); from += LOOKUP_CHUNK_SIZE) {
+            List<String> chunk = distinctIds.subList(from, Math.min(from + LOOKUP_CHUNK_SIZE, distinctIds.size()));
+            Query query = Query.query(Criteria.where("id").in(ObjectIds.from(chunk)));
+            query.fields().include("firstName", "lastName", "email", "fileName", "coverFileName", "gender", "connected", "online");
+            mongoTemplate.find(query, UserListItem.class, mongoTemplate.getCollectionName(UserProfile.class))
+                    .forEach(user -> usersById.put(user.getId(), user));
         }
-
-        return users;
+        return distinctIds.stream()
+                .map(usersById::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
     }
 
     public void changeOnlineStatusById(String id, boolean online) throws UserProfileNotFoundException {
-        UserProfile user = userRepository.findById(id).orElseThrow(
-                () -> new UserProfileNotFoundException("User with "+id+" not found")
-        );
-        user.setOnline(online);
-        userRepository.save(user);
+        setFlag(id, "online", online);
     }
 
     public void changeConnectionStatusById(String id, boolean connected) throws UserProfileNotFoundException {
-        UserProfile user = userRepository.findById(id).orElseThrow(
-                () -> new UserProfileNotFoundException("User with "+id+" not found")
-        );
-        user.setConnected(connected);
-        userRepository.save(user);
+        setFlag(id, "connected", connected);
     }
 
-    public List<UserProfile> getUserFriends(String userId) throws UserProfileNotFoundException {
-        UserProfile user = userRepository.findById(userId).orElseThrow(
+    /**
+     * Sets the flag alone, run on every socket connect and disconnect it must not write back the other fields.
+     */
+    private void setFlag(String id, String field, boolean value) throws UserProfileNotFoundException {
+        if(mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(id)), Update.update(field, value), UserProfile.class).getMatchedCount() == 0){
+            throw new UserProfileNotFoundException("User with "+id+" not found");
+        }
+        userCache.invalidate(id);
+    }
+
+    public List<UserListItem> getUserFriends(String userId) throws UserProfileNotFoundException {
+        UserProfile user = findCachedById(userId).orElseThrow(
                 () -> new UserProfileNotFoundException("User with "+userId+" not found")
         );
-        List<UserProfile> friends = new ArrayList<>();
-        for (String id:user.getFriends()) {
-            UserProfile friend = userRepository.findById(id).orElseThrow(
-                    () -> new UserProfileNotFoundException("User with "+userId+" not found")
-            );
-            friends.add(friend);
-        }
-        return friends;
+        return getSummariesInOrder(user.getFriends());
     }
 }
@@ -0,0 +1,31 @@
+package com.rafaelhosaka.shareme.user;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+/**
+ * The fields needed to display a user, embedded in messages and notifications instead of the whole profile.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class UserSummary {
+    @Id
+    private String id;
+
+    private String firstName;
+
+    private String lastName;
+
+    private String fileName;
+
+    public static UserSummary of(UserProfile user) {
+        return new UserSummary(user.getId(), user.getFirstName(), user.getLastName(), user.getFileName());
+    }
+
+    public static UserSummary of(UserListItem user) {
+        return new UserSummary(user.getId(), user.getFirstName(), user.getLastName(), user.getFileName());
+    }
+}
@@ -0,0 +1,172 @@
+package com.rafaelhosaka.shareme.user;
+
+import com.mongodb.DBRef;
+import com.rafaelhosaka.shareme.chat.Chat;
+import com.rafaelhosaka.shareme.config.Migrations;
+import com.rafaelhosaka.shareme.message.Message;
+import com.rafaelhosaka.shareme.notification.Notification;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Keeps the {@link UserSummary} copies embedded in messages, chats and notifications in line with the profiles.
+ * Documents written before the summaries existed are rewritten once in the background on the first startup:
+ * the notifications holding a DBRef in one pass over the notifications, then the copies of every user,
+ * including the whole embedded profiles. The copies of every user can be refreshed again on demand.
+ */
+@Service
+@Slf4j
+public class UserSummaryDenormalizer {
+    private static final List<String> MESSAGE_FIELDS = List.of("sender", "receiver");
+    private static final List<String> CHAT_FIELDS = List.of("friend");
+    private static final List<String> NOTIFICATION_FIELDS = List.of("friendRequesting", "acceptedFriend");
+    private static final String MIGRATION = "user-summaries";
+    private static final int BATCH_SIZE = 500;
+
+    private final MongoTemplate mongoTemplate;
+    private final Migrations migrations;
+
+    @Autowired
+    public UserSummaryDenormalizer(MongoTemplate mongoTemplate, Migrations migrations) {
+        this.mongoTemplate = mongoTemplate;
+        this.migrations = migrations;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void refreshAllOnStartup() {
+        CompletableFuture.runAsync(() -> {
+            if(!migrations.isDone(MIGRATION)){
+                convertReferences();
+                refreshAll().join();
+                migrations.markDone(MIGRATION);
+            }
+        }).exceptionally(e -> {
+            log.error("Exception : could not refresh the summaries of all users : {}", e.getMessage());
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> refreshAsync(UserProfile user) {
+        return CompletableFuture.runAsync(() -> refresh(user))
+                .exceptionally(e -> {
+                    log.error("Exception : could not refresh summaries of user {} : {}", user.getId(), e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Rewrites every embedded copy of every user.
+     */
+    public CompletableFuture<Integer> refreshAll() {
+        return CompletableFuture.supplyAsync(() -> {
+            int refreshed = 0;
+            Query query = new Query();
+            query.fields().include("id").include("firstName").include("lastName").include("fileName");
+            try (CloseableIterator<UserProfile> users = mongoTemplate.stream(query, UserProfile.class)) {
+                while (users.hasNext()) {
+                    refresh(users.next());
+                    refreshed++;
+                }
+            }
+            log.info("Refreshed summaries of {} users", refreshed);
+            return refreshed;
+        });
+    }
+
+    public void refresh(UserProfile user) {
+        if(!ObjectId.isValid(user.getId())){
+            return;
+        }
+        UserSummary summary = UserSummary.of(user);
+        MESSAGE_FIELDS.forEach(field -> refresh(Message.class, field, summary));
+        CHAT_FIELDS.forEach(field -> refresh(Chat.class, field, summary));
+        NOTIFICATION_FIELDS.forEach(field -> refresh(Notification.class, field, summary));
+    }
+
+    /**
+     * Replaces the DBRefs of the notifications with the summaries of their users, in batches.
+     * A notification whose user no longer exists keeps its DBRef.
+     */
+    private void convertReferences() {
+        String collection = mongoTemplate.getCollectionName(Notification.class);
+        int converted = 0;
+        for (String field : NOTIFICATION_FIELDS) {
+            BasicQuery query = new BasicQuery(new Document(field + ".$id", new Document("$exists", true)), new Document(field, 1));
+            try (CloseableIterator<Document> notifications = mongoTemplate.stream(query, Document.class, collection)) {
+                List<Document> batch = new ArrayList<>();
+                while (notifications.hasNext()) {
+                    batch.add(notifications.next());
+                    if(batch.size() == BATCH_SIZE){
+                        converted += convertReferences(collection, field, batch);
+                        batch.clear();
+                    }
+                }
+                if(!batch.isEmpty()){
+                    converted += convertReferences(collection, field, batch);
+                }
+            }
+        }
+        if(converted > 0){
+            log.info("Replaced the user references of {} notifications with summaries", converted);
+        }
+    }
+
+    private int convertReferences(String collection, String field, List<Document> notifications) {
+        Set<Object> usersIds = new HashSet<>();
+        notifications.forEach(notification -> usersIds.add(((DBRef) notification.get(field)).getId()));
+        Query query = Query.query(Criteria.where("_id").in(usersIds));
+        query.fields().include("id").include("firstName").include("lastName").include("fileName");
+        Map<String, UserSummary> summaries = new HashMap<>();
+        mongoTemplate.find(query, UserProfile.class).forEach(user -> summaries.put(user.getId(), UserSummary.of(user)));
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+        int converted = 0;
+        for (Document notification : notifications) {
+            UserSummary summary = summaries.get(((DBRef) notification.get(field)).getId().toString());
+            if(summary != null){
+                bulk.updateOne(Query.query(Criteria.where("_id").is(notification.get("_id"))), Update.update(field, toDocument(summary)));
+                converted++;
+            }
+        }
+        if(converted > 0){
+            bulk.execute();
+        }
+        return converted;
+    }
+
+    private void refresh(Class<?> documentType, String field, UserSummary summary) {
+        ObjectId id = new ObjectId(summary.getId());
+        //outdated summary or whole embedded profile
+        Document outdated = new Document(field + "._id", id).append("$or", List.of(
+                new Document(field + ".firstName", new Document("$ne", summary.getFirstName())),
+                new Document(field + ".lastName", new Document("$ne", summary.getLastName())),
+                new Document(field + ".fileName", new Document("$ne", summary.getFileName())),
+                new Document(field + ".friends", new Document("$exists", true))));
+        mongoTemplate.updateMulti(
+                new BasicQuery(outdated),
+                Update.update(field, toDocument(summary)),
+                documentType);
+    }
+
+    private Document toDocument(UserSummary summary) {
+        return new Document("_id", new ObjectId(summary.getId()))
+                .append("firstName", summary.getFirstName())
+                .append("lastName", summary.getLastName())
+                .append("fileName", summary.getFileName());
+    }
+}
@@ -0,0 +1,23 @@
+package com.rafaelhosaka.shareme.utils;
+
+import org.bson.types.ObjectId;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class ObjectIds {
+    public static List<ObjectId> from(Collection<String> ids) {
+        return ids.stream()
+                .filter(ObjectId::isValid)
+                .map(ObjectId::new)
+                .collect(Collectors.toList());
+    }
+
+    public static ObjectId from(String id) throws IllegalArgumentException {
+        if(!ObjectId.isValid(id)){
+            throw new IllegalArgumentException("Invalid id "+id);
+        }
+        return new ObjectId(id);
+    }
+}
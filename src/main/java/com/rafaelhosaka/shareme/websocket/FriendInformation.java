@@ -1,5 +1,5 @@
 package com.rafaelhosaka.shareme.websocket;
-import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserSummary;
 import lombok.*;
 
 @NoArgsConstructor
@@ -9,6 +9,6 @@ import lombok.*;
 @ToString
 public class FriendInformation {
     private String targetUserId;
-    private UserProfile friend;
+    private UserSummary friend;
 }
 
@@ -4,6 +4,10 @@ import com.rafaelhosaka.shareme.exception.NotificationNotFoundException;
 import com.rafaelhosaka.shareme.exception.UserProfileNotFoundException;
 import com.rafaelhosaka.shareme.friend.FriendRequest;
 import com.rafaelhosaka.shareme.message.Message;
+import com.rafaelhosaka.shareme.message.MessageAck;
+import com.rafaelhosaka.shareme.message.MessageService;
+import com.rafaelhosaka.shareme.message.MessageWriter;
+import com.rafaelhosaka.shareme.message.SendMessageRequest;
 import com.rafaelhosaka.shareme.notification.Notification;
 import com.rafaelhosaka.shareme.notification.NotificationService;
 import com.rafaelhosaka.shareme.user.UserProfile;
@@ -14,16 +18,26 @@ import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Controller;
 
+import java.security.Principal;
+
 @Controller
 public class WebSocketController {
     private SimpMessagingTemplate simpMessagingTemplate;
     private UserProfileService userProfileService;
     private NotificationService notificationService;
+    private MessageService messageService;
+    private MessageWriter messageWriter;
 
-    public WebSocketController(SimpMessagingTemplate simpMessagingTemplate, UserProfileService userProfileService, NotificationService notificationService){
+    public WebSocketController(SimpMessagingTemplate simpMessagingTemplate,
+                               UserProfileService userProfileService,
+                               NotificationService notificationService,
+                               MessageService messageService,
+                               MessageWriter messageWriter){
         this.simpMessagingTemplate = simpMessagingTemplate;
         this.userProfileService = userProfileService;
         this.notificationService = notificationService;
+        this.messageService = messageService;
+        this.messageWriter = messageWriter;
     }
 
     @MessageMapping("/change-status")
@@ -38,10 +52,45 @@ public class WebSocketController {
         return newStatus;
     }
 
+    /**
+     * Relays a message already sent through the REST api. The stored copy is relayed, not the payload.
+     */
     @MessageMapping("/message")
     public Message receiveMessage(@Payload Message message){
-        simpMessagingTemplate.convertAndSendToUser(message.getReceiver().getId(),"/message",message);
-        return message;
+        if(message.getId() == null){
+            return null;
+        }
+        Message stored = messageService.getMessageById(message.getId()).orElse(null);
+        if(stored != null){
+            simpMessagingTemplate.convertAndSendToUser(stored.getReceiver().getId(), MessageWriter.MESSAGE_DESTINATION, stored);
+        }
+        return stored;
+    }
+
+    /**
+     * Stores and delivers the message, the sender being acknowledged on /message-ack. The sender is the
+     * authenticated user of the connection, a payload naming another sender is rejected.
+     */
+    @MessageMapping("/send-message")
+    public void sendMessage(@Payload SendMessageRequest request, Principal principal){
+        if(principal == null){
+            return;
+        }
+        UserProfile sender;
+        try {
+            sender = userProfileService.getUserProfileByEmail(principal.getName());
+        } catch (UserProfileNotFoundException e) {
+            e.printStackTrace();
+            return;
+        }
+        if(request.getSenderId() != null && !request.getSenderId().equals(sender.getId())){
+            simpMessagingTemplate.convertAndSendToUser(sender.getId(), MessageWriter.ACK_DESTINATION,
+                    MessageAck.rejected(request.getClientId(), "Sender is not the authenticated user"));
+            return;
+        }
+        request.setSenderId(sender.getId());
+        messageWriter.submit(request).ifPresent(ack ->
+                simpMessagingTemplate.convertAndSendToUser(sender.getId(), MessageWriter.ACK_DESTINATION, ack));
     }
 
     @MessageMapping("/newRequest")
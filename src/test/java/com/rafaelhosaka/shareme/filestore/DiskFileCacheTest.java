@@ -0,0 +1,68 @@
+package com.rafaelhosaka.shareme.filestore;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiskFileCacheTest {
+	private Path directory;
+	private DiskFileCache cache;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		directory = Files.createTempDirectory("disk-file-cache-test");
+		cache = new DiskFileCache(new MockEnvironment()
+				.withProperty("filestore.cache.directory", directory.toString())
+				.withProperty("filestore.cache.max-bytes", "10")
+				.withProperty("filestore.cache.max-entry-bytes", "10"));
+		cache.init();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		FileSystemUtils.deleteRecursively(directory);
+	}
+
+	@Test
+	void evictsTheLeastRecentlyUsedFileFirst() throws IOException {
+		StoredFile a = put("a");
+		StoredFile b = put("b");
+		assertNotNull(cache.get("posts", "a"));
+
+		put("c");
+
+		assertNull(cache.get("posts", "b"));
+		assertFalse(Files.exists(b.getLocalPath()));
+		assertNotNull(cache.get("posts", "a"));
+		assertTrue(Files.exists(a.getLocalPath()));
+		assertNotNull(cache.get("posts", "c"));
+		assertEquals(1, cache.getStats().getEvictions());
+	}
+
+	@Test
+	void removesOnlyItsOwnFilesOnStartup() throws IOException {
+		Path leftover = Files.createFile(directory.resolve("cache-" + UUID.randomUUID()));
+		Path unrelated = Files.createFile(directory.resolve("notes.txt"));
+
+		cache.init();
+
+		assertFalse(Files.exists(leftover));
+		assertTrue(Files.exists(unrelated));
+	}
+
+	private StoredFile put(String key) throws IOException {
+		return cache.put("posts", key, new StoredFileInfo("text/plain", 4, "\"" + key + "\"", 0),
+				new ByteArrayInputStream((key + key + key + key).getBytes()));
+	}
+}
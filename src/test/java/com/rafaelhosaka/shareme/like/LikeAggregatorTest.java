@@ -0,0 +1,109 @@
+package com.rafaelhosaka.shareme.like;
+
+import com.mongodb.client.MongoCollection;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class LikeAggregatorTest {
+	private final String postId = new ObjectId().toHexString();
+
+	@TempDir
+	Path directory;
+	private MongoTemplate mongoTemplate;
+	private BulkOperations bulkOperations;
+
+	@BeforeEach
+	void setUp() {
+		mongoTemplate = mock(MongoTemplate.class);
+		bulkOperations = mock(BulkOperations.class);
+		when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Like.class))).thenReturn(bulkOperations);
+		when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), anyString())).thenReturn(bulkOperations);
+		when(mongoTemplate.aggregate(any(Aggregation.class), eq(Like.class), eq(Document.class)))
+				.thenReturn(new AggregationResults<>(List.of(new Document("_id", postId).append("count", 1)), new Document()));
+		when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("post")))
+				.thenReturn(List.of(new Document("_id", new ObjectId(postId))));
+		MongoCollection<Document> posts = mock(MongoCollection.class, RETURNS_DEEP_STUBS);
+		when(posts.aggregate(anyList()).first()).thenReturn(new Document("_id", new ObjectId(postId)).append("likeCount", 4));
+		when(mongoTemplate.getCollection("post")).thenReturn(posts);
+	}
+
+	private LikeAggregator aggregator() {
+		return new LikeAggregator(mongoTemplate, new MockEnvironment()
+				.withProperty("like.aggregator.enabled", "true")
+				.withProperty("like.aggregator.flush-interval-ms", "600000")
+				.withProperty("like.aggregator.log-directory", directory.toString())
+				//the aggregator refuses a log directory in the temporary directory
+				.withProperty("java.io.tmpdir", directory.resolveSibling("elsewhere").toString()));
+	}
+
+	/**
+	 * The last line of a log left by a crash may be partially written, it is skipped and the complete lines are replayed.
+	 */
+	@Test
+	void replaysTheCompleteLinesOfALogEndingWithATornWrite() throws IOException {
+		Files.writeString(directory.resolve("likes.log"),
+				"post\t" + postId + "\tuser1\t1\n" +
+				"post\t" + postId + "\tuser2\t1\n" +
+				"post\t" + postId + "\tuser2\t0\n" +
+				"post\t" + postId + "\tuser3\t",
+				StandardCharsets.UTF_8);
+		LikeAggregator aggregator = aggregator();
+
+		aggregator.init();
+		aggregator.shutdown();
+
+		verify(bulkOperations, times(1)).upsert(any(Query.class), any(Update.class));
+		verify(bulkOperations, times(1)).remove(any(Query.class));
+		verify(bulkOperations).updateOne(any(Query.class), eq(Update.update("likeCount", 1L)));
+		assertFalse(Files.readAllLines(directory.resolve("likes.log")).stream().anyMatch(line -> line.contains(postId)));
+	}
+
+	@Test
+	void dropsTheWrittenUsersOfATargetAfterAFlush() throws IOException {
+		LikeAggregator aggregator = aggregator();
+		aggregator.init();
+
+		assertTrue(aggregator.toggle("post", postId, "user1").isLiked());
+		assertTrue(aggregator.peekLiked("post", postId, "user1"));
+		//the first flush writes the user, the next one drops it
+		aggregator.flush();
+		aggregator.flush();
+
+		assertNull(aggregator.peekLiked("post", postId, "user1"));
+		assertEquals(5L, aggregator.peekCount("post", postId));
+		aggregator.shutdown();
+	}
+
+	@Test
+	void forgetsThePendingTogglesOfDeletedTargets() throws IOException {
+		LikeAggregator aggregator = aggregator();
+		aggregator.init();
+
+		aggregator.toggle("post", postId, "user1");
+		aggregator.forget(List.of(postId));
+		aggregator.shutdown();
+
+		verify(bulkOperations, never()).upsert(any(Query.class), any(Update.class));
+		assertNull(aggregator.peekCount("post", postId));
+	}
+}
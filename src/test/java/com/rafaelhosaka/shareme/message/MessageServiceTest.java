@@ -0,0 +1,74 @@
+package com.rafaelhosaka.shareme.message;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.rafaelhosaka.shareme.chat.Chat;
+import com.rafaelhosaka.shareme.unread.UnreadCounterService;
+import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserProfileService;
+import org.bson.BsonDocument;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class MessageServiceTest {
+	private final UserProfile sender = user();
+	private final UserProfile receiver = user();
+
+	private MongoTemplate mongoTemplate;
+	private UnreadCounterService unreadCounterService;
+	private BulkOperations bulkOperations;
+	private MessageService messageService;
+
+	private static UserProfile user() {
+		UserProfile user = new UserProfile();
+		user.setId(new ObjectId().toHexString());
+		return user;
+	}
+
+	@BeforeEach
+	void setUp() {
+		mongoTemplate = mock(MongoTemplate.class);
+		unreadCounterService = mock(UnreadCounterService.class);
+		bulkOperations = mock(BulkOperations.class, RETURNS_SELF);
+		when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Chat.class))).thenReturn(bulkOperations);
+		messageService = new MessageService(mock(MessageRepository.class), mock(UserProfileService.class), mongoTemplate,
+				unreadCounterService, new MockEnvironment());
+	}
+
+	/**
+	 * An entry inserted by a concurrent message fails the upsert with a duplicate key, the retry matches it and the
+	 * last message of both entries is still replaced when older.
+	 */
+	@Test
+	void retriesTheUpsertsOfAnEntryInsertedConcurrently() {
+		BulkWriteResult matched = BulkWriteResult.acknowledged(0, 3, 0, 0, List.of(), List.of());
+		when(bulkOperations.execute())
+				.thenThrow(new BulkOperationException("duplicate key", new MongoBulkWriteException(
+						BulkWriteResult.acknowledged(0, 1, 0, 0, List.of(), List.of()),
+						List.of(new BulkWriteError(11000, "duplicate key", new BsonDocument(), 1)),
+						null, new ServerAddress(), Set.of())))
+				.thenReturn(matched);
+
+		messageService.updateChats(sender, receiver, messageService.newMessage(sender, receiver, "hello", null), 1);
+
+		verify(bulkOperations, times(4)).upsert(any(Query.class), any(Update.class));
+		verify(bulkOperations, times(2)).updateOne(argThat((Query query) -> query.getQueryObject().containsKey("$or")),
+				any(Update.class));
+		verify(unreadCounterService).chatsChanged(receiver.getId(), 1);
+	}
+}
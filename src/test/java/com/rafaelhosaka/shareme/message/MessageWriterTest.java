@@ -0,0 +1,71 @@
+package com.rafaelhosaka.shareme.message;
+
+import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserProfileService;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class MessageWriterTest {
+	private final String senderId = new ObjectId().toHexString();
+	private final String receiverId = new ObjectId().toHexString();
+
+	private MessageService messageService;
+	private MongoTemplate mongoTemplate;
+	private SimpMessagingTemplate simpMessagingTemplate;
+	private MessageWriter writer;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		messageService = mock(MessageService.class);
+		UserProfileService userService = mock(UserProfileService.class);
+		mongoTemplate = mock(MongoTemplate.class);
+		simpMessagingTemplate = mock(SimpMessagingTemplate.class);
+		when(userService.getUserProfileById(anyString())).thenAnswer(invocation -> {
+			UserProfile user = new UserProfile();
+			user.setId(invocation.getArgument(0));
+			return user;
+		});
+		when(messageService.newMessage(any(), any(), anyString(), any())).thenAnswer(invocation -> new Message());
+		writer = new MessageWriter(messageService, userService, mongoTemplate, simpMessagingTemplate, new MockEnvironment());
+	}
+
+	@Test
+	void rejectsEveryMessageOfABatchThatCouldNotBeWritten() {
+		when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(Message.class))).thenThrow(new IllegalStateException("timeout"));
+
+		assertEquals(Optional.empty(), writer.submit(new SendMessageRequest(senderId, receiverId, "first", "a")));
+		assertEquals(Optional.empty(), writer.submit(new SendMessageRequest(senderId, receiverId, "second", "b")));
+		writer.flush();
+
+		ArgumentCaptor<Object> acks = ArgumentCaptor.forClass(Object.class);
+		verify(simpMessagingTemplate, times(2)).convertAndSendToUser(eq(senderId), eq(MessageWriter.ACK_DESTINATION), acks.capture());
+		List<Object> sent = acks.getAllValues();
+		assertEquals(List.of("a", "b"), sent.stream().map(ack -> ((MessageAck) ack).getClientId()).toList());
+		sent.forEach(ack -> assertEquals(MessageAckStatus.REJECTED, ((MessageAck) ack).getStatus()));
+		verify(simpMessagingTemplate, never()).convertAndSendToUser(eq(receiverId), eq(MessageWriter.MESSAGE_DESTINATION), any());
+	}
+
+	@Test
+	void rejectsMessagesSubmittedAfterShutdown() throws Exception {
+		writer.init();
+		writer.shutdown();
+
+		Optional<MessageAck> ack = writer.submit(new SendMessageRequest(senderId, receiverId, "late", "c"));
+
+		assertTrue(ack.isPresent());
+		assertEquals(MessageAckStatus.REJECTED, ack.get().getStatus());
+	}
+}
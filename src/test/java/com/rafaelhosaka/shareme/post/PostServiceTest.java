@@ -0,0 +1,67 @@
+package com.rafaelhosaka.shareme.post;
+
+import com.rafaelhosaka.shareme.filestore.FileStore;
+import com.rafaelhosaka.shareme.filestore.FileStreamer;
+import com.rafaelhosaka.shareme.filestore.ImageDerivativeService;
+import com.rafaelhosaka.shareme.filestore.UploadTracker;
+import com.rafaelhosaka.shareme.group.GroupService;
+import com.rafaelhosaka.shareme.like.LikeService;
+import com.rafaelhosaka.shareme.timeline.TimelineService;
+import com.rafaelhosaka.shareme.user.UserProfileRepository;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class PostServiceTest {
+	private MongoTemplate mongoTemplate;
+	private PostService postService;
+
+	@BeforeEach
+	void setUp() {
+		mongoTemplate = mock(MongoTemplate.class);
+		postService = new PostService(mock(PostRepository.class), mock(PostDeletionService.class), mongoTemplate,
+				mock(FileStore.class), mock(FileStreamer.class), mock(UploadTracker.class), mock(ImageDerivativeService.class),
+				mock(UserProfileRepository.class), mock(GroupService.class), mock(TimelineService.class), mock(LikeService.class),
+				new MockEnvironment());
+	}
+
+	/**
+	 * The client's copy was read before a like, the edit must not write its stale counters back.
+	 */
+	@Test
+	void editKeepsTheLikesMadeSinceThePostWasRead() throws Exception {
+		Post stale = new Post();
+		stale.setId(new ObjectId().toHexString());
+		stale.setDescription("edited");
+		stale.setLikeCount(0);
+		stale.setCommentCount(0);
+		Post stored = new Post();
+		stored.setId(stale.getId());
+		stored.setDescription("edited");
+		stored.setLikeCount(1);
+		when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), any(FindAndModifyOptions.class), eq(BasePost.class)))
+				.thenReturn(stored);
+
+		BasePost updated = postService.updatePost(stale);
+
+		ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+		verify(mongoTemplate).findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class), eq(BasePost.class));
+		Document set = (Document) update.getValue().getUpdateObject().get("$set");
+		assertEquals(Set.of("description"), set.keySet());
+		assertEquals(Set.of("$set"), update.getValue().getUpdateObject().keySet());
+		assertEquals(1, updated.getLikeCount());
+	}
+}
@@ -0,0 +1,58 @@
+package com.rafaelhosaka.shareme.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameIndexTest {
+	private static final String[] FIRST_NAMES = {"Ana", "Bruno", "Carla", "Daniel", "Elisa", "Fabio", "Gabriela", "Hugo", "Ines", "Joana"};
+	private static final String[] LAST_NAMES = {"Almeida", "Barbosa", "Cardoso", "Dias", "Esteves", "Ferreira", "Gomes", "Hosaka", "Lima", "Nunes"};
+
+	/**
+	 * Same results as the $regex search on the first and last names it replaces.
+	 */
+	@Test
+	void matchesTheRegexSearch() {
+		Random random = new Random(42);
+		NameIndex<String> index = new NameIndex<>();
+		Map<String, String[]> names = new HashMap<>();
+		for (int i = 0; i < 2000; i++) {
+			String[] name = {FIRST_NAMES[random.nextInt(FIRST_NAMES.length)], LAST_NAMES[random.nextInt(LAST_NAMES.length)]};
+			String id = String.valueOf(i);
+			names.put(id, name);
+			index.put(id, name[0] + " " + name[1], id);
+		}
+
+		for (String query : List.of("ana", "ANA", "osa", "ferr", "rdoso", "elisa gomes", "xyz", "ma")) {
+			Set<String> expected = names.entrySet().stream()
+					.filter(entry -> query.length() < 3
+							? Arrays.stream(entry.getValue()).anyMatch(word -> word.toLowerCase().startsWith(query))
+							: (entry.getValue()[0] + " " + entry.getValue()[1]).toLowerCase().contains(query.toLowerCase()))
+					.map(Map.Entry::getKey)
+					.collect(Collectors.toSet());
+			SearchResult<String> result = index.search(query, 0, Integer.MAX_VALUE);
+			assertEquals(expected, new HashSet<>(result.getContent()), query);
+			assertEquals(expected.size(), result.getTotal(), query);
+		}
+	}
+
+	@Test
+	void loadKeepsTheChangesMadeWhileLoading() {
+		NameIndex<String> index = new NameIndex<>();
+		index.startLoading();
+		index.put("1", "Ana Lima", "renamed");
+		index.remove("2");
+		index.load("1", "Ana Dias", "streamed");
+		index.load("2", "Bruno Gomes", "streamed");
+		index.load("3", "Carla Nunes", "streamed");
+		index.finishLoading();
+
+		assertEquals(List.of("renamed"), index.search("lima", 0, 10).getContent());
+		assertTrue(index.search("dias", 0, 10).getContent().isEmpty());
+		assertTrue(index.search("bruno", 0, 10).getContent().isEmpty());
+		assertEquals(List.of("streamed"), index.search("carla", 0, 10).getContent());
+	}
+}
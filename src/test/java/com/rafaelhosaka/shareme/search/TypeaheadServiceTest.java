@@ -0,0 +1,77 @@
+package com.rafaelhosaka.shareme.search;
+
+import com.rafaelhosaka.shareme.user.UserProfile;
+import com.rafaelhosaka.shareme.user.UserProfileService;
+import com.rafaelhosaka.shareme.user.UserSummary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class TypeaheadServiceTest {
+	private static final String[][] NAMES = {
+			{"Mario", "Silva"}, {"Marta", "Lima"}, {"Ana", "Amaral"}, {"Omar", "Dias"},
+			{"Tomas", "Marques"}, {"Maria", "Souza"}, {"Bruno", "Ramos"}, {"Carla", "Maia"}};
+
+	private final String callerId = new ObjectId().toHexString();
+	private final NameIndex<UserSummary> index = new NameIndex<>();
+	private SearchService searchService;
+	private UserProfileService userService;
+	private MongoTemplate mongoTemplate;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		List<String> friends = new ArrayList<>();
+		for (String[] name : NAMES) {
+			UserProfile user = new UserProfile();
+			user.setId(new ObjectId().toHexString());
+			user.setFirstName(name[0]);
+			user.setLastName(name[1]);
+			index.put(user.getId(), name[0] + " " + name[1], UserSummary.of(user));
+			if(friends.size() < 3){
+				friends.add(user.getId());
+			}
+		}
+		UserProfile caller = new UserProfile();
+		caller.setId(callerId);
+		caller.setFriends(friends);
+
+		searchService = mock(SearchService.class);
+		when(searchService.matchUsers(anyString())).thenAnswer(invocation -> index.match(invocation.getArgument(0)));
+		userService = mock(UserProfileService.class);
+		when(userService.getUserProfileById(callerId)).thenReturn(caller);
+		mongoTemplate = mock(MongoTemplate.class);
+		when(mongoTemplate.find(any(Query.class), eq(UserProfile.class))).thenReturn(new ArrayList<>());
+	}
+
+	/**
+	 * Typing one keystroke at a time reuses the cached candidates, and gives the results of a fresh search,
+	 * including across the trigram threshold where short queries only match the start of the words.
+	 */
+	@Test
+	void reusingTheCandidatesOfAPrefixGivesTheResultsOfAFreshSearch() throws Exception {
+		TypeaheadService typing = newService();
+		for (String query : List.of("m", "ma", "mar", "mari", "mar", "ma", "m")) {
+			assertEquals(names(newService().typeahead(callerId, query, 20)), names(typing.typeahead(callerId, query, 20)), query);
+		}
+		assertTrue(names(typing.typeahead(callerId, "mar", 20)).containsAll(List.of("Ana Amaral", "Omar Dias")));
+	}
+
+	private TypeaheadService newService() {
+		return new TypeaheadService(searchService, userService, mongoTemplate, new MockEnvironment());
+	}
+
+	private List<String> names(List<UserSummary> users) {
+		return users.stream().map(user -> user.getFirstName() + " " + user.getLastName()).collect(Collectors.toList());
+	}
+}
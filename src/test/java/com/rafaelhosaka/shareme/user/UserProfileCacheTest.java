@@ -0,0 +1,51 @@
+package com.rafaelhosaka.shareme.user;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UserProfileCacheTest {
+	private UserProfileCache cache;
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	void setUp() {
+		cache = new UserProfileCache(new MockEnvironment(), mock(ObjectProvider.class));
+	}
+
+	@Test
+	void cachesALoadOverlappingTheInvalidationOfAnotherUser() {
+		UserProfile user = user();
+		long loadStartedAt = cache.startLoad();
+		cache.invalidate(new ObjectId().toHexString());
+		cache.put(user, loadStartedAt);
+
+		assertTrue(cache.getById(user.getId()).isPresent());
+		assertTrue(cache.getByEmail(user.getEmail()).isPresent());
+	}
+
+	@Test
+	void dropsALoadOverlappingTheInvalidationOfItsUser() {
+		UserProfile user = user();
+		long loadStartedAt = cache.startLoad();
+		cache.invalidate(user.getId());
+		cache.put(user, loadStartedAt);
+
+		assertFalse(cache.getById(user.getId()).isPresent());
+
+		cache.put(user, cache.startLoad());
+		assertTrue(cache.getById(user.getId()).isPresent());
+	}
+
+	private UserProfile user() {
+		UserProfile user = new UserProfile();
+		user.setId(new ObjectId().toHexString());
+		user.setEmail(user.getId() + "@example.com");
+		return user;
+	}
+}